@@ -0,0 +1,240 @@
+package benchmarks;
+
+import com.google.api.services.admin.directory.model.User;
+
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Access to the tool's classes from benchmark code.
+ * JMH refuses benchmark classes in the default package, and code in a
+ * named package cannot refer to default package classes, so calls go
+ * through method handles resolved once when this class loads.
+ * Handles held in static finals are inlined by the JIT like direct calls.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+final class Bridge {
+    private static final MethodHandle OPEN_ROSTER;
+    private static final MethodHandle READ_CHUNKS;
+    private static final MethodHandle NEW_USER;
+    private static final MethodHandle SET;
+    private static final MethodHandle SET_SLOT;
+    private static final MethodHandle COLUMNS;
+    private static final MethodHandle RESOLVE;
+    private static final MethodHandle GET_ORGS;
+    private static final MethodHandle UPDATE_ORGS;
+    private static final MethodHandle ORG_CHANGES;
+    private static final MethodHandle USER_VALUES;
+    private static final MethodHandle SINK_WRITER;
+    private static final MethodHandle CSV_SINK;
+    private static final MethodHandle SINK_WRITE;
+
+    static {
+        try {
+            OPEN_ROSTER = constructor("RosterReader", Reader.class)
+                .asType(MethodType.methodType(Iterator.class, Reader.class));
+            READ_CHUNKS = method("MappedRoster", "readChunks", String.class, Function.class);
+            NEW_USER = constructor("UserData")
+                .asType(MethodType.methodType(Object.class));
+            SET = method("UserData", "set", String.class, String.class)
+                .asType(MethodType.methodType(void.class, Object.class, String.class, String.class));
+            SET_SLOT = method("UserData", "set", int.class, String.class)
+                .asType(MethodType.methodType(void.class, Object.class, int.class, String.class));
+            COLUMNS = method("UserData", "getColumns");
+            RESOLVE = method("ColumnSchema", "resolve", String[].class)
+                .asType(MethodType.methodType(Object.class, String[].class));
+            GET_ORGS = method("UserData", "getOrganizations")
+                .asType(MethodType.methodType(Object.class, Object.class));
+            UPDATE_ORGS = method("GSuiteTool", "updateOrganizations", Object.class, ArrayList.class);
+            ORG_CHANGES = method("GSuiteTool", "organizationChanges", Object.class, Class.forName("UserData"))
+                .asType(MethodType.methodType(Map.class, Object.class, Object.class));
+            // Default --columns, bound once so the benchmark times only formatting
+            Field spec = Class.forName("UserColumn").getDeclaredField("DEFAULT");
+            spec.setAccessible(true);
+            List<?> columns = (List<?>) method("UserColumn", "parse", String.class).invoke(spec.get(null));
+            MethodHandle header = method("UserColumn", "getHeader");
+            List<String> names = new ArrayList<>();
+            for (Object column : columns) {names.add((String) header.invoke(column));}
+            USER_VALUES = MethodHandles.insertArguments(
+                method("GSuiteTool", "userValues", User.class, List.class), 1, columns);
+            SINK_WRITER = method("OutputSink", "writer", OutputStream.class);
+            CSV_SINK = MethodHandles.insertArguments(
+                constructor("OutputSink$Csv", List.class, Writer.class), 0, names)
+                .asType(MethodType.methodType(Closeable.class, Writer.class));
+            SINK_WRITE = method("OutputSink", "write", String[].class)
+                .asType(MethodType.methodType(void.class, Closeable.class, String[].class));
+        } catch (Throwable e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Bridge() {}
+
+    static MethodHandle constructor(String className, Class<?>... params)
+            throws ReflectiveOperationException {
+        Constructor<?> c = Class.forName(className).getDeclaredConstructor(params);
+        c.setAccessible(true);
+        return MethodHandles.lookup().unreflectConstructor(c);
+    }
+
+    static MethodHandle method(String className, String name, Class<?>... params)
+            throws ReflectiveOperationException {
+        Method m = Class.forName(className).getDeclaredMethod(name, params);
+        m.setAccessible(true);
+        return MethodHandles.lookup().unreflect(m);
+    }
+
+    static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {return (RuntimeException) t;}
+        if (t instanceof Error) {throw (Error) t;}
+        return new RuntimeException(t);
+    }
+
+    /** new RosterReader(reader) */
+    @SuppressWarnings("unchecked")
+    static Iterator<Object> openRoster(Reader in) {
+        try {
+            return (Iterator<Object>) (Iterator<?>) OPEN_ROSTER.invokeExact(in);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** MappedRoster.readChunks(path, perChunk), rows typed as Object */
+    @SuppressWarnings("unchecked")
+    static <R> List<R> readChunks(String path, Function<List<Object>, R> perChunk) {
+        try {
+            return (List<R>) (List<?>) READ_CHUNKS.invokeExact(path, (Function) perChunk);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** new UserData() */
+    static Object newUserData() {
+        try {
+            return (Object) NEW_USER.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** user.set(key, value) */
+    static void set(Object user, String key, String value) {
+        try {
+            SET.invokeExact(user, key, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** user.set(slot, value) */
+    static void set(Object user, int slot, String value) {
+        try {
+            SET_SLOT.invokeExact(user, slot, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Handle for a no-arg UserData getter, typed (Object)String.
+     * Keep the result in a static final field so calls get inlined.
+     */
+    static MethodHandle userGetter(String name) {
+        try {
+            return method("UserData", name)
+                .asType(MethodType.methodType(String.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** UserData.getColumns() */
+    static String[] columns() {
+        try {
+            return (String[]) COLUMNS.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** ColumnSchema.resolve(header) */
+    static Object resolveSchema(String[] header) {
+        try {
+            return (Object) RESOLVE.invokeExact(header);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** user.getOrganizations() */
+    static Object organizations(Object user) {
+        try {
+            return (Object) GET_ORGS.invokeExact(user);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** GSuiteTool.updateOrganizations(main, updateOrgs) */
+    static Object updateOrganizations(Object main, ArrayList<?> updateOrgs) {
+        try {
+            return (Object) UPDATE_ORGS.invokeExact(main, (ArrayList) updateOrgs);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** GSuiteTool.organizationChanges(current, update) */
+    @SuppressWarnings("unchecked")
+    static Map<String, String> organizationChanges(Object current, Object update) {
+        try {
+            return (Map<String, String>) ORG_CHANGES.invokeExact(current, update);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** GSuiteTool.userValues(user, columns), one row of --list-users with the default columns */
+    static String[] userValues(User user) {
+        try {
+            return (String[]) USER_VALUES.invokeExact(user);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** OutputSink.open(CSV, ...) with the default columns, writing to out instead of a file */
+    static Closeable csvSink(OutputStream out) {
+        try {
+            return (Closeable) CSV_SINK.invokeExact((Writer) SINK_WRITER.invokeExact(out));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** sink.write(values) */
+    static void write(Closeable sink, String[] values) {
+        try {
+            SINK_WRITE.invokeExact(sink, values);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to parse a generated roster of 10k, 100k and 1M rows, comparing
+ * the String.split based parser the tool used to have with RosterReader
+ * and with the parallel MappedRoster.
+ * Rows per second is the row count divided by the time per file.
+ * Run with `gradle jmh -P jmhArgs="['CsvParseBenchmark']"`
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvParseBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private File roster;
+
+    @Setup
+    public void generate() throws IOException {
+        roster = File.createTempFile("roster", ".csv");
+        Datasets.writeRoster(roster, rows);
+    }
+
+    @TearDown
+    public void delete() {
+        roster.delete();
+    }
+
+    @Benchmark
+    public void tokenizer(Blackhole bh) throws IOException {
+        try (Reader in = open()) {
+            Iterator<Object> rows = Bridge.openRoster(in);
+            while (rows.hasNext()) {
+                bh.consume(rows.next());
+            }
+        }
+    }
+
+    @Benchmark
+    public void mapped(Blackhole bh) {
+        bh.consume(Bridge.readChunks(roster.getPath(), rows -> rows.size()));
+    }
+
+    /** The parseData/getIndex implementation RosterReader replaced */
+    @Benchmark
+    public void splitBaseline(Blackhole bh) throws IOException {
+        try (BufferedReader dataSheet = new BufferedReader(open())) {
+            String header = dataSheet.readLine();
+            String[] columns = Bridge.columns();
+            int[] colIndex = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                colIndex[i] = getIndex(header, columns[i]);
+            }
+            for (String line = dataSheet.readLine(); line != null; line = dataSheet.readLine()) {
+                String[] row = line.split(",", -1);
+                Object user = Bridge.newUserData();
+                for (int i = 0; i < columns.length; i++) {
+                    Bridge.set(user, columns[i], row[colIndex[i]]);
+                }
+                bh.consume(user);
+            }
+        }
+    }
+
+    private Reader open() throws IOException {
+        return new InputStreamReader(new FileInputStream(roster), StandardCharsets.UTF_8);
+    }
+
+    private static int getIndex(String header, String search) {
+        String[] columns = header.trim().replaceAll("\\P{Print}", "").split(",");
+        for (int i = 0; i < columns.length; i++) {
+            if (search.equals(columns[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import com.google.api.client.util.ArrayMap;
+import com.google.api.services.admin.directory.model.User;
+import com.google.api.services.admin.directory.model.UserName;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic rosters and directory listings for the benchmarks.
+ * Values repeat on small cycles the way titles, departments and
+ * groups do in a real domain.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+final class Datasets {
+    static final String HEADER = "firstName,lastName,email,phone,jobtitle,groups,password,dept";
+
+    private Datasets() {}
+
+    /**
+     * Write a UTF-8 roster with a BOM and CRLF line endings, like a spreadsheet export.
+     * @param File Destination
+     * @param int Number of data rows
+     */
+    static void writeRoster(File roster, int rows) throws IOException {
+        try (Writer out = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(roster), StandardCharsets.UTF_8))) {
+            out.write("\uFEFF" + HEADER + "\r\n");
+            for (int i = 0; i < rows; i++) {
+                out.write("First" + i + ",Last" + i + ",user" + i + "@example.com,555-010" + (i % 10)
+                    + ",Specialist " + (i % 50) + ",group" + (i % 7) + "@example.com group" + (i % 11)
+                    + "@example.com,Pa55word" + i + ",Dept " + (i % 20) + "\r\n");
+            }
+        }
+    }
+
+    /**
+     * Users shaped like a users().list page parsed by the client library,
+     * organizations included as a list of ArrayMaps.
+     * @param int Number of users
+     */
+    static List<User> users(int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setName(new UserName().setGivenName("First" + i).setFamilyName("Last" + i));
+            user.setPrimaryEmail("user" + i + "@example.com");
+            user.setOrganizations(organizations("Specialist " + (i % 50), "Dept " + (i % 20)));
+            users.add(user);
+        }
+        return users;
+    }
+
+    /** Organizations value as the API returns it for a user with one organization */
+    static ArrayList<ArrayMap<String, Object>> organizations(String title, String department) {
+        ArrayMap<String, Object> org = new ArrayMap<>();
+        org.put("title", title);
+        org.put("department", department);
+        org.put("primary", Boolean.TRUE);
+        org.put("customType", "");
+        ArrayList<ArrayMap<String, Object>> orgs = new ArrayList<>();
+        orgs.add(org);
+        return orgs;
+    }
+}
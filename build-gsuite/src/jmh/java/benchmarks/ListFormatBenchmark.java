@@ -0,0 +1,68 @@
+package benchmarks;
+
+import com.google.api.services.admin.directory.model.User;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to format the --list-users rows of a generated domain of 10k, 100k
+ * and 1M users with the default columns. Rows go through the same CSV
+ * sink as --list-users, into a stream that drops them, so the console or
+ * disk is not part of what is measured.
+ * Run with `gradle jmh -P jmhArgs="['ListFormatBenchmark']"`
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ListFormatBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int users;
+
+    private List<User> domain;
+
+    @Setup
+    public void generate() {
+        domain = Datasets.users(users);
+    }
+
+    @Benchmark
+    public void formatUsers(Blackhole bh) throws IOException {
+        try (Closeable sink = Bridge.csvSink(new NullStream())) {
+            for (User user : domain) {
+                Bridge.write(sink, Bridge.userValues(user));
+            }
+            bh.consume(sink);
+        }
+    }
+
+    /** Accepts and discards everything written to it */
+    private static final class NullStream extends OutputStream {
+        @Override
+        public void write(int b) {}
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    }
+}
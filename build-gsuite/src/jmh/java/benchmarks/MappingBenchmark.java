@@ -0,0 +1,93 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per row cost of mapping between roster rows and the API model:
+ * resolving the header (getIndex per column versus ColumnSchema),
+ * building a row's organizations, merging them into a user's current
+ * organizations and diffing the two for --update.
+ * Run with `gradle jmh -P jmhArgs="['MappingBenchmark']"`
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MappingBenchmark {
+    private static final String[] COLUMNS = Bridge.columns();
+
+    private String header;
+    private Object row;
+    private Object current;
+    private ArrayList<?> update;
+
+    @Setup
+    public void setUp() {
+        header = "\uFEFF" + Datasets.HEADER;
+        row = Bridge.newUserData();
+        Bridge.set(row, "email", "some.name@example.com");
+        Bridge.set(row, "jobtitle", "Senior Specialist");
+        Bridge.set(row, "dept", "Example Creation");
+        current = Datasets.organizations("Specialist", "Example Creation");
+        update = (ArrayList<?>) Bridge.organizations(row);
+    }
+
+    /** The header lookup parseData did before ColumnSchema, one split per column */
+    @Benchmark
+    public int[] headerGetIndex() {
+        int[] index = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            index[i] = getIndex(header, COLUMNS[i]);
+        }
+        return index;
+    }
+
+    @Benchmark
+    public Object headerSchema() {
+        return Bridge.resolveSchema(header.split(","));
+    }
+
+    @Benchmark
+    public Object getOrganizations() {
+        return Bridge.organizations(row);
+    }
+
+    @Benchmark
+    public Object updateOrganizations() {
+        // Merging the same values again leaves current unchanged between calls
+        return Bridge.updateOrganizations(current, update);
+    }
+
+    @Benchmark
+    public Map<String, String> organizationChanges() {
+        return Bridge.organizationChanges(current, row);
+    }
+
+    private static int getIndex(String header, String search) {
+        String[] columns = header.trim().replaceAll("\\P{Print}", "").split(",");
+        for (int i = 0; i < columns.length; i++) {
+            if (search.equals(columns[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
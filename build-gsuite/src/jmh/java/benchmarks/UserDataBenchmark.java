@@ -0,0 +1,99 @@
+package benchmarks;
+
+import com.google.api.client.util.ArrayMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building a UserData row and reading fields back, comparing the
+ * slot array layout with the ArrayMap layout it replaced.
+ * Memory per row is the gc.alloc.rate.norm of the build benchmarks:
+ * `gradle jmh -P jmhArgs="['UserDataBenchmark', '-prof', 'gc']"`
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UserDataBenchmark {
+    private static final MethodHandle GET_EMAIL = Bridge.userGetter("getEmail");
+    private static final MethodHandle GET_TITLE = Bridge.userGetter("getTitle");
+    private static final MethodHandle GET_GROUPS = Bridge.userGetter("getGroups");
+    private static final String[] COLUMNS = Bridge.columns();
+
+    private String[] values;
+    private Object slotted;
+    private LegacyUserData legacy;
+
+    @Setup
+    public void setUp() {
+        values = new String[] {"Some", "Name", "some.name@example.com", "Pa55word",
+            "Some Specialist", "555-0100", "Example Creation", "group1@example.com group2@example.com"};
+        slotted = buildSlotted();
+        legacy = buildLegacy();
+    }
+
+    @Benchmark
+    public Object buildSlotted() {
+        Object user = Bridge.newUserData();
+        for (int i = 0; i < values.length; i++) {
+            Bridge.set(user, i, values[i]);
+        }
+        return user;
+    }
+
+    @Benchmark
+    public LegacyUserData buildLegacy() {
+        LegacyUserData user = new LegacyUserData();
+        for (int i = 0; i < values.length; i++) {
+            user.set(COLUMNS[i], values[i]);
+        }
+        return user;
+    }
+
+    @Benchmark
+    public void getSlotted(Blackhole bh) throws Throwable {
+        bh.consume((String) GET_EMAIL.invokeExact(slotted));
+        bh.consume((String) GET_TITLE.invokeExact(slotted));
+        bh.consume((String) GET_GROUPS.invokeExact(slotted));
+    }
+
+    @Benchmark
+    public void getLegacy(Blackhole bh) {
+        bh.consume(legacy.getEmail());
+        bh.consume(legacy.getTitle());
+        bh.consume(legacy.getGroups());
+    }
+
+    /** The ArrayMap backed UserData, kept here as the baseline */
+    static class LegacyUserData {
+        private final ArrayMap<String, String> data = new ArrayMap<>();
+
+        LegacyUserData() {
+            for (String col : COLUMNS) {
+                data.put(col, null);
+            }
+        }
+        void set(String key, String value) {data.put(key, value);}
+        String getEmail() {return data.get("email");}
+        String getTitle() {return data.get("jobtitle");}
+        String getGroups() {return data.get("groups");}
+    }
+}
@@ -0,0 +1,430 @@
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.json.JsonFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToLongFunction;
+
+/**
+ * Per call metrics of every HTTP request a client sends, grouped by
+ * operation, e.g. "POST users" or "GET groups/{}/members". Each
+ * attempt is timed from just before it is sent until its response
+ * headers arrive and lands in a log-linear latency histogram (32 steps
+ * per power of two, so percentiles are within about 3%), together with
+ * its status code, request and response bytes and whether ApiRetry sent
+ * it as a retry. Recording is a few atomic adds, no locks.
+ *
+ * Jobs take a snapshot when they start and report the difference, so a
+ * daemon serving many commands still reports each on its own.
+ * Response bytes come from Content-Length; chunked replies count as 0.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+final class ApiMetrics {
+    /** Linear steps within each power of two of microseconds */
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Largest latency told apart, about 12 days */
+    private static final long MAX_MICROS = (1L << 40) - 1;
+    static final int BUCKETS = bucket(MAX_MICROS) + 1;
+
+    /** Prometheus histogram bounds, in seconds */
+    private static final double[] EXPORT_BOUNDS = {
+        0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    private final Map<String, Recorder> operations = new ConcurrentHashMap<>();
+
+    /**
+     * Wrap the initializer of a client's requests so they are recorded.
+     * @param HttpRequestInitializer Initializer to run first, may be null
+     * @return HttpRequestInitializer Initializer for the Directory service
+     */
+    HttpRequestInitializer instrument(HttpRequestInitializer inner) {
+        return request -> {
+            if (inner != null) {inner.initialize(request);}
+            Probe probe = new Probe(request.getInterceptor(), request.getIOExceptionHandler());
+            request.setInterceptor(probe);
+            request.setResponseInterceptor(probe);
+            request.setIOExceptionHandler(probe);
+        };
+    }
+
+    /** @return Snapshot Everything recorded so far */
+    Snapshot snapshot() {
+        Map<String, Stats> stats = new TreeMap<>();
+        for (Map.Entry<String, Recorder> e : operations.entrySet()) {
+            stats.put(e.getKey(), e.getValue().stats(e.getKey()));
+        }
+        return new Snapshot(stats);
+    }
+
+    private Recorder recorder(String operation) {
+        Recorder recorder = operations.get(operation);
+        return recorder != null ? recorder : operations.computeIfAbsent(operation, op -> new Recorder());
+    }
+
+    /**
+     * Name calls by method and their path below the API version, with
+     * the keys replaced, e.g. "PATCH users/{}". Other urls keep their path.
+     * @param String HTTP method
+     * @param GenericUrl Request url
+     * @return String Operation name
+     */
+    static String operation(String method, GenericUrl url) {
+        List<String> parts = url.getPathParts();
+        int from = parts == null ? -1 : parts.lastIndexOf("v1") + 1;
+        if (from <= 0) {return method+" "+(parts == null ? "/" : url.getRawPath());}
+        StringBuilder op = new StringBuilder(method).append(' ');
+        // Collections and keys alternate: users/{userKey}, groups/{groupKey}/members/{memberKey}
+        for (int i = from; i < parts.size(); i++) {
+            if (i > from) {op.append('/');}
+            op.append((i - from) % 2 == 0 ? parts.get(i) : "{}");
+        }
+        return op.toString();
+    }
+
+    static int bucket(long micros) {
+        long v = Math.min(Math.max(micros, 0), MAX_MICROS);
+        if (v < 2 * SUB_BUCKETS) {return (int) v;}
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (int) ((shift << SUB_BUCKET_BITS) + (v >>> shift));
+    }
+
+    /** @return long Highest latency, in microseconds, that falls in a bucket */
+    static long bucketMax(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {return bucket;}
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long mantissa = SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1));
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /** Live counters of one operation */
+    private static final class Recorder {
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong requestBytes = new AtomicLong();
+        final AtomicLong responseBytes = new AtomicLong();
+        final AtomicLong totalMicros = new AtomicLong();
+        final Map<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+
+        void record(long micros, int status, long sent, long received, boolean retry) {
+            histogram.incrementAndGet(bucket(micros));
+            count.incrementAndGet();
+            totalMicros.addAndGet(micros);
+            requestBytes.addAndGet(sent);
+            responseBytes.addAndGet(received);
+            if (retry) {retries.incrementAndGet();}
+            if (status < 0) {
+                failed.incrementAndGet();
+            } else {
+                AtomicLong n = statuses.get(status);
+                if (n == null) {n = statuses.computeIfAbsent(status, s -> new AtomicLong());}
+                n.incrementAndGet();
+            }
+        }
+
+        Stats stats(String operation) {
+            long[] buckets = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {buckets[i] = histogram.get(i);}
+            SortedMap<Integer, Long> codes = new TreeMap<>();
+            for (Map.Entry<Integer, AtomicLong> e : statuses.entrySet()) {codes.put(e.getKey(), e.getValue().get());}
+            return new Stats(operation, buckets, count.get(), failed.get(), retries.get(),
+                requestBytes.get(), responseBytes.get(), totalMicros.get(), codes);
+        }
+    }
+
+    /** Times one request; chains to the handlers set before it */
+    private final class Probe implements HttpExecuteInterceptor, HttpResponseInterceptor, HttpIOExceptionHandler {
+        private final HttpExecuteInterceptor interceptor;
+        private final HttpIOExceptionHandler ioHandler;
+        private long started;
+        private boolean retry;
+
+        Probe(HttpExecuteInterceptor interceptor, HttpIOExceptionHandler ioHandler) {
+            this.interceptor = interceptor;
+            this.ioHandler = ioHandler;
+        }
+
+        @Override
+        public void intercept(HttpRequest request) throws IOException {
+            if (interceptor != null) {interceptor.intercept(request);}
+            retry = ApiRetry.isRetrying();
+            started = System.nanoTime();
+        }
+
+        @Override
+        public void interceptResponse(HttpResponse response) {
+            Long length = response.getHeaders().getContentLength();
+            done(response.getRequest(), response.getStatusCode(), length == null ? 0 : length);
+        }
+
+        @Override
+        public boolean handleIOException(HttpRequest request, boolean supportsRetry) throws IOException {
+            done(request, -1, 0);
+            return ioHandler != null && ioHandler.handleIOException(request, supportsRetry);
+        }
+
+        private void done(HttpRequest request, int status, long received) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started);
+            long sent = 0;
+            HttpContent content = request.getContent();
+            if (content != null) {
+                try {
+                    // Computed once by the request itself and cached
+                    sent = Math.max(0, content.getLength());
+                } catch (IOException e) {
+                    sent = 0;
+                }
+            }
+            recorder(operation(request.getRequestMethod(), request.getUrl()))
+                .record(micros, status, sent, received, retry);
+        }
+    }
+
+    /** Counters of one operation at one moment */
+    static final class Stats {
+        final String operation;
+        private final long[] histogram;
+        final long count;
+        final long failed;
+        final long retries;
+        final long requestBytes;
+        final long responseBytes;
+        final long totalMicros;
+        final SortedMap<Integer, Long> statuses;
+
+        Stats(String operation, long[] histogram, long count, long failed, long retries,
+                long requestBytes, long responseBytes, long totalMicros, SortedMap<Integer, Long> statuses) {
+            this.operation = operation;
+            this.histogram = histogram;
+            this.count = count;
+            this.failed = failed;
+            this.retries = retries;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.totalMicros = totalMicros;
+            this.statuses = Collections.unmodifiableSortedMap(statuses);
+        }
+
+        /**
+         * @param double Quantile, e.g. 0.99
+         * @return double Latency in milliseconds that many requests stayed within
+         */
+        double percentileMillis(double quantile) {
+            if (count == 0) {return 0;}
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank) {return bucketMax(i) / 1000.0;}
+            }
+            return bucketMax(histogram.length - 1) / 1000.0;
+        }
+
+        /** @return double Slowest request in milliseconds, to histogram precision */
+        double maxMillis() {return percentileMillis(1);}
+
+        /** @return double Time spent waiting on this operation, in seconds */
+        double totalSeconds() {return totalMicros / 1e6;}
+
+        /** @return long Requests at or below a latency, to histogram precision */
+        long countWithin(double seconds) {
+            long limit = (long) (seconds * 1e6);
+            long within = 0;
+            for (int i = 0; i < histogram.length && bucketMax(i) <= limit; i++) {within += histogram[i];}
+            return within;
+        }
+
+        Stats minus(Stats earlier) {
+            if (earlier == null) {return this;}
+            long[] buckets = histogram.clone();
+            for (int i = 0; i < buckets.length; i++) {buckets[i] -= earlier.histogram[i];}
+            SortedMap<Integer, Long> codes = new TreeMap<>(statuses);
+            for (Map.Entry<Integer, Long> e : earlier.statuses.entrySet()) {
+                long left = codes.get(e.getKey()) - e.getValue();
+                if (left == 0) {codes.remove(e.getKey());} else {codes.put(e.getKey(), left);}
+            }
+            return new Stats(operation, buckets, count - earlier.count, failed - earlier.failed,
+                retries - earlier.retries, requestBytes - earlier.requestBytes,
+                responseBytes - earlier.responseBytes, totalMicros - earlier.totalMicros, codes);
+        }
+    }
+
+    /** Counters of every operation at one moment */
+    static final class Snapshot {
+        private final Map<String, Stats> operations;
+
+        Snapshot(Map<String, Stats> operations) {
+            this.operations = operations;
+        }
+
+        /** @return Stats Counters of an operation, null if it was never called */
+        Stats get(String operation) {return operations.get(operation);}
+
+        /** @return boolean True if no request was recorded */
+        boolean isEmpty() {return operations.isEmpty();}
+
+        /**
+         * @param Snapshot Snapshot taken earlier from the same metrics
+         * @return Snapshot What was recorded in between
+         */
+        Snapshot minus(Snapshot earlier) {
+            Map<String, Stats> stats = new TreeMap<>();
+            for (Stats s : operations.values()) {
+                Stats delta = s.minus(earlier.get(s.operation));
+                if (delta.count > 0) {stats.put(s.operation, delta);}
+            }
+            return new Snapshot(stats);
+        }
+
+        /** @return List<Stats> Operations, the one that took the most time first */
+        List<Stats> byTime() {
+            List<Stats> sorted = new ArrayList<>(operations.values());
+            sorted.sort(Comparator.comparingLong((Stats s) -> s.totalMicros).reversed());
+            return sorted;
+        }
+
+        /** @return String Table of the operations for the end of a run */
+        String summary() {
+            StringBuilder out = new StringBuilder("API time by operation:\n");
+            out.append(String.format("%-28s %7s %7s %6s %8s %8s %8s %8s %8s %9s %9s  %s%n",
+                "operation", "calls", "retries", "failed", "p50 ms", "p90 ms", "p99 ms", "max ms",
+                "total s", "sent KB", "recv KB", "status"));
+            for (Stats s : byTime()) {
+                StringBuilder codes = new StringBuilder();
+                for (Map.Entry<Integer, Long> e : s.statuses.entrySet()) {
+                    codes.append(codes.length() == 0 ? "" : " ").append(e.getKey()).append('x').append(e.getValue());
+                }
+                out.append(String.format("%-28s %7d %7d %6d %8.1f %8.1f %8.1f %8.1f %8.2f %9.1f %9.1f  %s%n",
+                    s.operation, s.count, s.retries, s.failed, s.percentileMillis(0.5), s.percentileMillis(0.9),
+                    s.percentileMillis(0.99), s.maxMillis(), s.totalSeconds(),
+                    s.requestBytes / 1024.0, s.responseBytes / 1024.0, codes));
+            }
+            return out.toString();
+        }
+
+        /** @return String Prometheus text exposition format */
+        String prometheus() {
+            StringBuilder out = new StringBuilder();
+            out.append("# HELP gsuite_api_request_duration_seconds Time from sending a Directory API request to its response headers.\n");
+            out.append("# TYPE gsuite_api_request_duration_seconds histogram\n");
+            for (Stats s : operations.values()) {
+                String op = label(s.operation);
+                for (double bound : EXPORT_BOUNDS) {
+                    out.append("gsuite_api_request_duration_seconds_bucket{operation=").append(op)
+                        .append(",le=\"").append(bound).append("\"} ").append(s.countWithin(bound)).append('\n');
+                }
+                out.append("gsuite_api_request_duration_seconds_bucket{operation=").append(op)
+                    .append(",le=\"+Inf\"} ").append(s.count).append('\n');
+                out.append("gsuite_api_request_duration_seconds_sum{operation=").append(op).append("} ")
+                    .append(s.totalSeconds()).append('\n');
+                out.append("gsuite_api_request_duration_seconds_count{operation=").append(op).append("} ")
+                    .append(s.count).append('\n');
+            }
+            out.append("# HELP gsuite_api_responses_total Directory API responses by status code.\n");
+            out.append("# TYPE gsuite_api_responses_total counter\n");
+            for (Stats s : operations.values()) {
+                for (Map.Entry<Integer, Long> e : s.statuses.entrySet()) {
+                    out.append("gsuite_api_responses_total{operation=").append(label(s.operation))
+                        .append(",status=\"").append(e.getKey()).append("\"} ").append(e.getValue()).append('\n');
+                }
+            }
+            counter(out, "gsuite_api_failed_requests_total", "Directory API requests that got no response.",
+                s -> s.failed);
+            counter(out, "gsuite_api_retries_total", "Directory API requests sent again after a transient error.",
+                s -> s.retries);
+            counter(out, "gsuite_api_request_bytes_total", "Bytes of Directory API request bodies.",
+                s -> s.requestBytes);
+            counter(out, "gsuite_api_response_bytes_total", "Bytes of Directory API response bodies.",
+                s -> s.responseBytes);
+            return out.toString();
+        }
+
+        private void counter(StringBuilder out, String name, String help, ToLongFunction<Stats> value) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(" counter\n");
+            for (Stats s : operations.values()) {
+                out.append(name).append("{operation=").append(label(s.operation)).append("} ")
+                    .append(value.applyAsLong(s)).append('\n');
+            }
+        }
+
+        private static String label(String value) {
+            return "\""+value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")+"\"";
+        }
+
+        /**
+         * @param JsonFactory Factory to write with
+         * @return String Pretty printed JSON, one object per operation
+         * @throws IOException If the JSON cannot be generated
+         */
+        String json(JsonFactory json) throws IOException {
+            List<Map<String, Object>> list = new ArrayList<>();
+            for (Stats s : byTime()) {
+                Map<String, Object> op = new LinkedHashMap<>();
+                op.put("operation", s.operation);
+                op.put("calls", s.count);
+                op.put("retries", s.retries);
+                op.put("failed", s.failed);
+                Map<String, Object> latency = new LinkedHashMap<>();
+                latency.put("p50", s.percentileMillis(0.5));
+                latency.put("p90", s.percentileMillis(0.9));
+                latency.put("p99", s.percentileMillis(0.99));
+                latency.put("max", s.maxMillis());
+                latency.put("mean", s.count == 0 ? 0.0 : s.totalMicros / 1000.0 / s.count);
+                op.put("latencyMillis", latency);
+                op.put("totalSeconds", s.totalSeconds());
+                op.put("requestBytes", s.requestBytes);
+                op.put("responseBytes", s.responseBytes);
+                Map<String, Object> codes = new LinkedHashMap<>();
+                for (Map.Entry<Integer, Long> e : s.statuses.entrySet()) {codes.put(e.getKey().toString(), e.getValue());}
+                op.put("statuses", codes);
+                list.add(op);
+            }
+            Map<String, Object> root = new LinkedHashMap<>();
+            root.put("operations", list);
+            return json.toPrettyString(root);
+        }
+
+        /**
+         * Write the metrics to a file, as JSON if its name ends in .json
+         * and in Prometheus text format otherwise.
+         * @param File Destination, replaced if it exists
+         * @param JsonFactory Factory for the JSON format
+         * @throws IOException If the file cannot be written
+         */
+        void write(File file, JsonFactory json) throws IOException {
+            String text = file.getName().endsWith(".json") ? json(json) : prometheus();
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                out.write(text);
+            }
+        }
+    }
+}
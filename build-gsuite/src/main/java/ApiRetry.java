@@ -0,0 +1,326 @@
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpResponseException;
+
+import org.apache.http.NoHttpResponseException;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Retry layer shared by every Directory API call of a run.
+ * Errors are classified; quota, backend and network errors are retried
+ * with exponential backoff plus jitter, everything else is returned to
+ * the caller on the first attempt. Calls also pass through an AIMD
+ * window: each success widens the number of calls allowed in flight a
+ * little, and throttling halves it, so concurrent workers back off
+ * together when the API pushes back. A burst of throttling errors halves
+ * it once: errors from calls sent before the last cut were answered to
+ * the old window and do not cut it again. The window is what keeps
+ * requests in flight within -j when rows run on virtual threads.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+class ApiRetry {
+    /** What kind of failure an API error represents */
+    enum ErrorKind {
+        RATE_LIMIT(true), BACKEND(true), NETWORK(true), DUPLICATE(false), NOT_FOUND(false), OTHER(false);
+
+        private final boolean retryable;
+
+        private ErrorKind(boolean retryable) {
+            this.retryable = retryable;
+        }
+
+        boolean isRetryable() {return retryable;}
+    }
+
+    /** A single API call, e.g. () -> service.users().insert(u).execute() */
+    interface Call<T> {
+        T execute() throws IOException;
+    }
+
+    static final int MAX_ATTEMPTS = 5;
+    private static final long MAX_BACKOFF_MILLIS = 32000;
+
+    private final RateLimiter limiter;
+    private final long baseDelayMillis;
+    private final int maxWindow;
+
+    // AIMD window, guarded by lock. A Lock rather than synchronized, so
+    // virtual threads waiting for the window unmount from their carrier
+    private final Lock lock = new ReentrantLock();
+    private final Condition opened = lock.newCondition();
+    private double window;
+    private int inFlight = 0;
+    // Calls let through so far, and how many had been at the last cut
+    private long sent = 0;
+    private long recovery = 0;
+
+    /** Sequence number of the call the current thread is making, for onThrottle */
+    private final ThreadLocal<Long> current = new ThreadLocal<>();
+
+    /** Set on a thread between a backoff and the attempt that follows it */
+    private static final ThreadLocal<Boolean> RETRYING = new ThreadLocal<>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong backoffMillis = new AtomicLong();
+
+    /**
+     * @param RateLimiter Limiter every attempt takes a token from
+     * @param int Most calls allowed in flight, usually --parallelism
+     * @param long Delay before the first retry, doubled for each later one
+     */
+    ApiRetry(RateLimiter limiter, int maxWindow, long baseDelayMillis) {
+        this.limiter = limiter;
+        this.maxWindow = Math.max(1, maxWindow);
+        this.window = this.maxWindow;
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    ApiRetry(RateLimiter limiter, int maxWindow) {
+        this(limiter, maxWindow, 1000);
+    }
+
+    /**
+     * Classify a failed call.
+     * @param IOException Exception thrown by execute()
+     * @return ErrorKind Kind of failure
+     */
+    static ErrorKind classify(IOException e) {
+        if (e instanceof GoogleJsonResponseException && ((GoogleJsonResponseException) e).getDetails() != null) {
+            return classify(((GoogleJsonResponseException) e).getDetails());
+        }
+        if (e instanceof HttpResponseException) {
+            return classify(((HttpResponseException) e).getStatusCode(), null);
+        }
+        // The server hung up without answering, e.g. on a stale pooled connection
+        if (e instanceof SocketTimeoutException || e instanceof SocketException
+                || e instanceof NoHttpResponseException) {
+            return ErrorKind.NETWORK;
+        }
+        return ErrorKind.OTHER;
+    }
+
+    /**
+     * Classify an error returned inside a batch response.
+     * @param GoogleJsonError Error details from the API
+     * @return ErrorKind Kind of failure
+     */
+    static ErrorKind classify(GoogleJsonError e) {
+        return classify(e.getCode(), e.getErrors());
+    }
+
+    private static ErrorKind classify(int code, List<GoogleJsonError.ErrorInfo> errors) {
+        if (code == 429) {return ErrorKind.RATE_LIMIT;}
+        if (code == 403 && errors != null) {
+            for (GoogleJsonError.ErrorInfo info : errors) {
+                String reason = info.getReason();
+                if ("rateLimitExceeded".equals(reason) || "userRateLimitExceeded".equals(reason)
+                        || "quotaExceeded".equals(reason)) {
+                    return ErrorKind.RATE_LIMIT;
+                }
+            }
+        }
+        if (code >= 500) {return ErrorKind.BACKEND;}
+        if (code == 409) {return ErrorKind.DUPLICATE;}
+        if (code == 404) {return ErrorKind.NOT_FOUND;}
+        return ErrorKind.OTHER;
+    }
+
+    /**
+     * Run a call, retrying transient failures.
+     * @param Call<T> The API call
+     * @return T Result of the first successful attempt
+     * @throws IOException The last error once retries are used up, or the
+     *                     first error that is not worth retrying
+     */
+    <T> T execute(Call<T> call) throws IOException {
+        return execute(call, false, 1);
+    }
+
+    /**
+     * Run a call that creates something, e.g. an insert, retrying transient
+     * failures. An attempt that failed on the network may still have been
+     * carried out, and its retry is then refused as a duplicate; that
+     * duplicate is the lost attempt's own work, so it counts as success.
+     * @param Call<T> The API call
+     * @return T Result of the first successful attempt, null if it was an
+     *           attempt whose response was lost
+     * @throws IOException As for execute
+     */
+    <T> T executeInsert(Call<T> call) throws IOException {
+        return execute(call, true, 1);
+    }
+
+    /**
+     * Send a batch, retrying transient failures of the batch as a whole.
+     * The quota counts every request inside a batch, so each attempt
+     * takes that many tokens instead of one.
+     * @param Call<T> Executes the batch
+     * @param int Requests queued in the batch
+     * @return T Result of the first successful attempt
+     * @throws IOException As for execute
+     */
+    <T> T executeBatch(Call<T> call, int requests) throws IOException {
+        return execute(call, false, requests);
+    }
+
+    private <T> T execute(Call<T> call, boolean insert, int permits) throws IOException {
+        boolean lost = false;
+        for (int attempt = 1; ; attempt++) {
+            long ticket = enter();
+            current.set(ticket);
+            boolean throttle = false;
+            try {
+                limiter.acquire(permits);
+                calls.incrementAndGet();
+                T result = call.execute();
+                onSuccess();
+                return result;
+            } catch (IOException e) {
+                ErrorKind kind = classify(e);
+                if (insert && lost && kind == ErrorKind.DUPLICATE) {
+                    onSuccess();
+                    return null;
+                }
+                lost |= kind == ErrorKind.NETWORK;
+                throttle = kind == ErrorKind.RATE_LIMIT;
+                if (!kind.isRetryable() || attempt >= MAX_ATTEMPTS) {throw e;}
+            } finally {
+                RETRYING.remove();
+                current.remove();
+                leave(ticket, throttle);
+            }
+            backoff(attempt);
+        }
+    }
+
+    /**
+     * Sleep before retry number n, e.g. before resending failed batch items.
+     * @param int Attempt that just failed, starting at 1
+     * @throws IOException If interrupted while sleeping
+     */
+    void backoff(int attempt) throws IOException {
+        retries.incrementAndGet();
+        RETRYING.set(Boolean.TRUE);
+        long delay = backoffMillis(attempt);
+        backoffMillis.addAndGet(delay);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while backing off", e);
+        }
+    }
+
+    /**
+     * Exponential delay with up to one base delay of random jitter,
+     * so workers that failed together do not retry together.
+     * @param int Attempt that just failed, starting at 1
+     * @return long Milliseconds to wait
+     */
+    long backoffMillis(int attempt) {
+        long exponential = Math.min(MAX_BACKOFF_MILLIS, baseDelayMillis << Math.min(attempt - 1, 20));
+        return exponential + ThreadLocalRandom.current().nextLong(baseDelayMillis + 1);
+    }
+
+    /**
+     * Record a throttling error seen outside execute(), e.g. in a batch.
+     * Errors reported while a batch is being sent belong to that batch's call.
+     */
+    void onThrottle() {
+        Long ticket = current.get();
+        lock.lock();
+        try {
+            throttle(ticket == null ? sent : ticket);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Halve the window, unless the call was sent before the last cut. Hold lock. */
+    private void throttle(long ticket) {
+        throttled.incrementAndGet();
+        if (ticket >= recovery) {
+            window = Math.max(1, window / 2);
+            recovery = sent;
+        }
+    }
+
+    private void onSuccess() {
+        lock.lock();
+        try {
+            // Roughly +1 per window's worth of successes
+            window = Math.min(maxWindow, window + 1 / window);
+            opened.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return long Sequence number of the call let through */
+    private long enter() throws IOException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) window) {
+                opened.await();
+            }
+            inFlight++;
+            return sent++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the request window", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void leave(long ticket, boolean throttle) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (throttle) {throttle(ticket);}
+            opened.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether the calling thread is sending a retry, for ApiMetrics.
+     * @return boolean True between a backoff and the end of the next execute()
+     */
+    static boolean isRetrying() {
+        return RETRYING.get() != null;
+    }
+
+    long getCalls() {return calls.get();}
+    long getRetries() {return retries.get();}
+    long getThrottled() {return throttled.get();}
+    long getBackoffMillis() {return backoffMillis.get();}
+    double getWindow() {
+        lock.lock();
+        try {
+            return window;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return String One line summary of retry activity for the end of a run */
+    String summary() {
+        return String.format("API calls: %d, retries: %d, throttled: %d, time backing off: %.1fs, window: %.1f/%d",
+            getCalls(), getRetries(), getThrottled(), getBackoffMillis() / 1000.0, getWindow(), maxWindow);
+    }
+}
@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the per-row work of a bulk command on a bounded pool of workers.
+ * Each row's report is printed in input order no matter which worker
+ * finishes first, and at most a few rows per worker are held in memory.
+ * With a parallelism of 1 rows simply run on the calling thread.
+ *
+ * With virtual threads (JDK 21 and later) every row gets its own
+ * thread and many more rows than workers are in flight; the request
+ * window of ApiRetry still holds requests in flight to the parallelism.
+ * A row sleeping in backoff or waiting on the rate limiter then no
+ * longer keeps a worker from the other rows. The build targets Java 8,
+ * so the virtual thread executor is looked up at run time and a fixed
+ * pool is used where it does not exist.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+class BulkExecutor {
+    /** Outcome of one row: whether it worked and the text to report. */
+    static class Result {
+        final boolean success;
+        final String report;
+
+        Result(boolean success, String report) {
+            this.success = success;
+            this.report = report;
+        }
+    }
+
+    /** Rows in flight per request allowed in flight when rows run on virtual threads */
+    static final int ROWS_PER_REQUEST = 16;
+
+    private final ExecutorService pool;
+    private final ArrayDeque<Future<Result>> pending = new ArrayDeque<>();
+    private final int window;
+    private final long start = System.nanoTime();
+    private int succeeded = 0;
+    private int failed = 0;
+
+    /**
+     * @param int Number of workers, or of requests in flight with virtual threads
+     * @param boolean Run each row on its own virtual thread if the JVM has them
+     */
+    BulkExecutor(int parallelism, boolean virtualThreads) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        ExecutorService virtual = virtualThreads ? virtualThreadPerTask() : null;
+        if (virtual != null) {
+            this.pool = virtual;
+            this.window = parallelism * ROWS_PER_REQUEST;
+        } else {
+            this.pool = parallelism == 1 ? null : Executors.newFixedThreadPool(parallelism);
+            this.window = parallelism * 4;
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor(), where the JVM has it.
+     * @return ExecutorService New executor, null before JDK 21
+     */
+    static ExecutorService virtualThreadPerTask() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /** @return boolean True if this JVM can run rows on virtual threads */
+    static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Queue up work for one row. Blocks while the oldest row is unfinished
+     * and the window is full, so large rosters never pile up in memory.
+     * @param Callable<Result> Work for a single row
+     * @throws IOException If a row failed with an unexpected IOException
+     */
+    void submit(Callable<Result> task) throws IOException {
+        if (pool == null) {
+            report(run(task));
+            return;
+        }
+        pending.add(pool.submit(task));
+        while (pending.size() >= window || (!pending.isEmpty() && pending.peek().isDone())) {
+            report(await(pending.poll()));
+        }
+    }
+
+    /**
+     * Wait for all queued rows, print their reports and a throughput summary.
+     * @param String What each row represents, used in the summary
+     * @throws IOException If a row failed with an unexpected IOException
+     */
+    void finish(String noun) throws IOException {
+        try {
+            while (!pending.isEmpty()) {
+                report(await(pending.poll()));
+            }
+        } finally {
+            if (pool != null) {pool.shutdownNow();}
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int total = succeeded + failed;
+        System.out.printf("Processed %d %s (%d succeeded, %d failed) in %.2fs - %.1f %s/s%n",
+            total, noun, succeeded, failed, seconds,
+            seconds > 0 ? total / seconds : 0.0, noun);
+    }
+
+    private void report(Result result) {
+        if (result.success) {succeeded++;} else {failed++;}
+        System.out.print(result.report);
+    }
+
+    private Result run(Callable<Result> task) throws IOException {
+        try {
+            return task.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private Result await(Future<Result> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pool.shutdownNow();
+            throw new IOException("Interrupted while waiting on workers", e);
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {throw (IOException) cause;}
+            if (cause instanceof RuntimeException) {throw (RuntimeException) cause;}
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Layout of a roster file, resolved once from its header row.
+ * Maps each position in a record to a UserData slot, or to the
+ * overflow map for columns the tool does not know about.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+class ColumnSchema {
+    private final String[] names;
+    private final int[] slots;
+
+    private ColumnSchema(String[] names, int[] slots) {
+        this.names = names;
+        this.slots = slots;
+    }
+
+    /**
+     * Resolve a header row. Reports known columns missing from the file.
+     * @param String[] Header fields in file order
+     * @return ColumnSchema Slot assignment for every header field
+     */
+    static ColumnSchema resolve(String[] header) {
+        String[] names = new String[header.length];
+        int[] slots = new int[header.length];
+        boolean[] found = new boolean[UserData.getColumns().length];
+        for (int i = 0; i < header.length; i++) {
+            // CSV's can come into multiple formats, invisible chars need stripped
+            names[i] = header[i].trim().replaceAll("\\P{Print}", "");
+            slots[i] = UserData.slotOf(names[i]);
+            if (slots[i] >= 0) {
+                if (found[slots[i]]) {
+                    // Only the first of duplicate columns is used
+                    slots[i] = -1;
+                } else {
+                    found[slots[i]] = true;
+                }
+            }
+        }
+        String[] columns = UserData.getColumns();
+        for (int i = 0; i < columns.length; i++) {
+            if (!found[i]) {System.out.println(columns[i]+" not found in file.");}
+        }
+        return new ColumnSchema(names, slots);
+    }
+
+    /**
+     * Build a user from the current record of a tokenizer.
+     * @param CsvTokenizer Tokenizer positioned on a data record
+     * @return UserData Row with known columns in slots and the rest as extras
+     */
+    UserData toUserData(CsvTokenizer record) {
+        UserData user = new UserData();
+        int width = Math.min(names.length, record.size());
+        for (int i = 0; i < width; i++) {
+            if (slots[i] >= 0) {
+                user.set(slots[i], record.get(i));
+            } else {
+                user.setExtra(names[i], record.get(i));
+            }
+        }
+        return user;
+    }
+}
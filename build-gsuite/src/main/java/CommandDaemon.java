@@ -0,0 +1,216 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long running --daemon that keeps the JVM, credential and connection
+ * pool warm and runs command lines forwarded by bash gsuite, so small
+ * commands skip JVM startup and the OAuth flow.
+ * It listens on a loopback port, written together with a random token
+ * to a file only the owner can read; requests without the token are
+ * refused. Commands run one at a time, since their output is
+ * System.out streamed back to the caller. They all use the daemon's
+ * client, so --root-url of a forwarded command is ignored.
+ *
+ * POST /run takes the caller's working directory and then one argument
+ * per line. The reply is the output of the command followed by a last
+ * line "gsuite-daemon-exit: N" carrying its exit status.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+final class CommandDaemon implements Closeable {
+    /** Where bash gsuite looks for the port and token of a running daemon */
+    static final File STATE_FILE = new File(DirectoryClient.DATA_STORE_DIR, "daemon");
+
+    /** Start of the last line of every reply */
+    static final String EXIT_PREFIX = "gsuite-daemon-exit: ";
+
+    private final DirectoryClient client;
+    private final File stateFile;
+    private final String token;
+    private final HttpServer server;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    /** The daemon's own log, commands write to their caller instead */
+    private final PrintStream console = System.out;
+    private boolean closed = false;
+
+    /**
+     * @param DirectoryClient Client every forwarded command runs on
+     * @param File Where to publish the port and token once started
+     * @throws IOException If no loopback port can be opened
+     */
+    CommandDaemon(DirectoryClient client, File stateFile) throws IOException {
+        this.client = client;
+        this.stateFile = stateFile;
+        byte[] secret = new byte[16];
+        new SecureRandom().nextBytes(secret);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : secret) {hex.append(String.format("%02x", b));}
+        this.token = hex.toString();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/run", this::exchange);
+        server.setExecutor(worker);
+    }
+
+    /**
+     * Authorize once, then serve commands until --stop-daemon or the JVM exits.
+     * @param RunConfig Options of the daemon itself, e.g. --root-url
+     * @throws IOException If the client or the listening socket cannot be set up
+     */
+    static void serve(RunConfig config) throws IOException {
+        try (DirectoryClient client = GSuiteTool.openClient(config)) {
+            // Closed by hand rather than by the try, since the shutdown hook closes it too
+            CommandDaemon daemon = new CommandDaemon(client, STATE_FILE);
+            try {
+                daemon.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+                System.out.println("Serving commands on port "+daemon.port()+", stop with bash gsuite --stop-daemon");
+                daemon.awaitStop();
+                System.out.println("Daemon stopped");
+            } finally {
+                daemon.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Start listening and publish the port and token.
+     * @throws IOException If the state file cannot be written
+     */
+    void start() throws IOException {
+        server.start();
+        File dir = stateFile.getAbsoluteFile().getParentFile();
+        if (dir != null) {dir.mkdirs();}
+        // Restrict the file before the token goes in
+        new FileOutputStream(stateFile).close();
+        stateFile.setReadable(false, false);
+        stateFile.setReadable(true, true);
+        stateFile.setWritable(false, false);
+        stateFile.setWritable(true, true);
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(stateFile), StandardCharsets.UTF_8)) {
+            out.write(port()+" "+token+"\n");
+        }
+    }
+
+    /** @return int Loopback port the daemon listens on */
+    int port() {return server.getAddress().getPort();}
+
+    /** @return String Token callers must send as "Authorization: Bearer token" */
+    String token() {return token;}
+
+    /** Block until a caller sends --stop-daemon or the daemon is closed */
+    void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    /** Stop listening and withdraw the state file. Safe to call twice. */
+    @Override
+    public synchronized void close() {
+        if (closed) {return;}
+        closed = true;
+        server.stop(0);
+        worker.shutdownNow();
+        stateFile.delete();
+        stopped.countDown();
+    }
+
+    private void exchange(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String auth = exchange.getRequestHeaders().getFirst("Authorization");
+            if (auth == null || !MessageDigest.isEqual(("Bearer "+token).getBytes(StandardCharsets.UTF_8),
+                    auth.getBytes(StandardCharsets.UTF_8))) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            List<String> lines = Arrays.asList(
+                new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8).split("\n"));
+            File workingDir = new File(lines.get(0));
+            List<String> args = new ArrayList<>();
+            for (String line : lines.subList(1, lines.size())) {
+                if (!line.isEmpty()) {args.add(line);}
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            // Length 0 streams the reply chunked, so long commands report as they go
+            exchange.sendResponseHeaders(200, 0);
+            PrintStream out = new PrintStream(exchange.getResponseBody(), true, "UTF-8");
+            long start = System.nanoTime();
+            int status;
+            if (stopRequested(args)) {
+                out.println("Stopping daemon");
+                status = 0;
+            } else {
+                status = run(args.toArray(new String[args.size()]), workingDir, out);
+            }
+            out.println(EXIT_PREFIX+status);
+            out.close();
+            console.printf("%s - exit %d in %d ms%n", args, status, (System.nanoTime() - start) / 1000000);
+            if (stopRequested(args)) {stopped.countDown();}
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Run one forwarded command with its output sent to the caller.
+     * @return int Exit status the command would have had on its own
+     */
+    private int run(String[] args, File workingDir, PrintStream out) {
+        System.setOut(out);
+        try {
+            GSuiteTool.command(args, client, workingDir);
+            return 0;
+        } catch (GSuiteTool.Exit e) {
+            return e.status;
+        } catch (IOException | RuntimeException e) {
+            out.println("Command failed: "+e);
+            return 1;
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    private static boolean stopRequested(List<String> args) {
+        for (String arg : args) {
+            if (GSuiteTool.Flag.STOP.matches(arg)) {return true;}
+        }
+        return false;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,175 @@
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the access token of a Credential fresh off the request path.
+ * A background thread refreshes the token a few minutes before it
+ * expires; requests only read the current token from a volatile field,
+ * where Credential itself takes a lock on every request and refreshes
+ * inside whichever request notices the expiry.
+ * If a refresh fails it is tried again shortly, and a request that still
+ * gets a 401 refreshes once in line and is retried, so no call is lost
+ * at the expiry boundary. Refreshed tokens reach the credential store
+ * through the Credential's own refresh listeners.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+final class CredentialManager implements HttpRequestInitializer, HttpExecuteInterceptor,
+        HttpUnsuccessfulResponseHandler, Closeable {
+    /** How long before expiry the token is replaced */
+    static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    /** Wait before trying again after a failed refresh */
+    static final long RETRY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Credential credential;
+    private final long marginMillis;
+    private final long retryMillis;
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "token-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile String accessToken;
+
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong inline = new AtomicLong();
+    private final AtomicLong refreshNanos = new AtomicLong();
+    private final AtomicLong maxRefreshNanos = new AtomicLong();
+
+    /**
+     * @param Credential Credential holding the refresh token
+     * @param long Milliseconds before expiry to refresh
+     * @param long Milliseconds to wait after a failed refresh
+     */
+    CredentialManager(Credential credential, long marginMillis, long retryMillis) {
+        this.credential = credential;
+        this.marginMillis = marginMillis;
+        this.retryMillis = retryMillis;
+        this.accessToken = credential.getAccessToken();
+    }
+
+    /**
+     * Manage a credential with the default margins. The token is
+     * refreshed right away if it is missing or about to expire.
+     * @param Credential Authorized credential, e.g. from the installed app flow
+     * @return CredentialManager Manager with its refresher running
+     */
+    static CredentialManager start(Credential credential) {
+        CredentialManager manager = new CredentialManager(credential, REFRESH_MARGIN_MILLIS, RETRY_MILLIS);
+        manager.schedule();
+        return manager;
+    }
+
+    /** Plan the next refresh from the expiry of the current token */
+    void schedule() {
+        Long expiresIn = credential.getExpiresInSeconds();
+        long delay = accessToken == null || expiresIn == null
+            ? 0 : Math.max(0, expiresIn * 1000 - marginMillis);
+        refresher.schedule(this::refreshInBackground, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshInBackground() {
+        if (refresh()) {
+            schedule();
+        } else {
+            refresher.schedule(this::refreshInBackground, retryMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Fetch a new access token and publish it to requests.
+     * @return boolean True if the token server issued a new token
+     */
+    synchronized boolean refresh() {
+        long start = System.nanoTime();
+        boolean ok;
+        try {
+            ok = credential.refreshToken();
+        } catch (IOException e) {
+            ok = false;
+        }
+        long took = System.nanoTime() - start;
+        refreshNanos.addAndGet(took);
+        for (long max = maxRefreshNanos.get(); took > max && !maxRefreshNanos.compareAndSet(max, took); ) {
+            max = maxRefreshNanos.get();
+        }
+        if (ok && credential.getAccessToken() != null) {
+            refreshes.incrementAndGet();
+            accessToken = credential.getAccessToken();
+            return true;
+        }
+        failures.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Refresh because a request was refused, unless another thread
+     * already replaced the token it used.
+     */
+    private synchronized boolean refreshAfter(String rejected) {
+        String current = accessToken;
+        if (current != null && !current.equals(rejected)) {return true;}
+        inline.incrementAndGet();
+        return refresh();
+    }
+
+    /** @return String Token requests are currently sent with */
+    String getAccessToken() {return accessToken;}
+
+    @Override
+    public void initialize(HttpRequest request) {
+        request.setInterceptor(this);
+        request.setUnsuccessfulResponseHandler(this);
+    }
+
+    @Override
+    public void intercept(HttpRequest request) {
+        String token = accessToken;
+        if (token != null) {request.getHeaders().setAuthorization("Bearer "+token);}
+    }
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry) {
+        if (response.getStatusCode() != 401 || !supportsRetry) {return false;}
+        String sent = request.getHeaders().getAuthorization();
+        String rejected = sent != null && sent.startsWith("Bearer ") ? sent.substring(7) : null;
+        return refreshAfter(rejected);
+    }
+
+    /** @return long Tokens issued so far */
+    long getRefreshes() {return refreshes.get();}
+
+    /** @return long Refresh attempts the token server did not answer with a token */
+    long getFailures() {return failures.get();}
+
+    /** @return long Refreshes a request had to wait for after a 401 */
+    long getInlineRefreshes() {return inline.get();}
+
+    /** @return String One line report of refresh counts and latency */
+    String summary() {
+        long attempts = refreshes.get() + failures.get();
+        return String.format("Token refreshes: %d, failed: %d, after 401: %d, avg %.0f ms, max %.0f ms",
+            refreshes.get(), failures.get(), inline.get(),
+            attempts == 0 ? 0.0 : refreshNanos.get() / 1e6 / attempts, maxRefreshNanos.get() / 1e6);
+    }
+
+    /** Stop the background refresher */
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Single pass RFC 4180 csv tokenizer.
+ * Handles quoted fields (including commas, line breaks and doubled quotes
+ * inside them), CRLF or LF line endings and a leading byte order mark.
+ * The read buffer and field buffer are reused across records, so the only
+ * per-row allocations are the Strings callers actually ask for.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+class CsvTokenizer {
+    private static final char BOM = '\uFEFF';
+
+    private final Reader in;
+    private final char[] buffer;
+    private int pos = 0;
+    private int limit = 0;
+    private boolean started = false;
+    private boolean unterminated = false;
+
+    /** Characters of every field in the current record, back to back */
+    private char[] fieldChars = new char[256];
+    private int fieldLength = 0;
+    /** End offset of each field of the current record in fieldChars */
+    private int[] fieldEnds = new int[16];
+    private int fieldCount = 0;
+
+    /**
+     * @param Reader Source of csv text, read in large chunks
+     */
+    CsvTokenizer(Reader in) {
+        this(in, 1 << 16);
+    }
+
+    CsvTokenizer(Reader in, int bufferSize) {
+        this.in = in;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Advance to the next record.
+     * @return boolean False once the input is exhausted
+     * @throws IOException If the underlying reader fails
+     */
+    boolean next() throws IOException {
+        fieldLength = 0;
+        fieldCount = 0;
+        if (!started) {
+            started = true;
+            if (fill() && buffer[pos] == BOM) {pos++;}
+        }
+        if (pos >= limit && !fill()) {return false;}
+
+        boolean quoted = false;
+        boolean fieldWasQuoted = false;
+        while (true) {
+            if (pos >= limit && !fill()) {
+                // End of input terminates the last record
+                unterminated = quoted;
+                endField();
+                return true;
+            }
+            char c = buffer[pos++];
+            if (quoted) {
+                if (c == '"') {
+                    if (pos >= limit && !fill()) {
+                        quoted = false;
+                    } else if (buffer[pos] == '"') {
+                        append('"');
+                        pos++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    append(c);
+                }
+            } else if (c == ',') {
+                endField();
+                fieldWasQuoted = false;
+            } else if (c == '\n') {
+                endField();
+                return true;
+            } else if (c == '\r') {
+                if ((pos < limit || fill()) && buffer[pos] == '\n') {pos++;}
+                endField();
+                return true;
+            } else if (c == '"' && !fieldWasQuoted && fieldStart() == fieldLength) {
+                quoted = true;
+                fieldWasQuoted = true;
+            } else {
+                append(c);
+            }
+        }
+    }
+
+    /** @return boolean True if the input ended inside a quoted field */
+    boolean endedInQuotes() {
+        return unterminated;
+    }
+
+    /** @return int Number of fields in the current record */
+    int size() {
+        return fieldCount;
+    }
+
+    /**
+     * @param int Zero based column of the current record
+     * @return String Field value, or null if the record is shorter than that
+     */
+    String get(int index) {
+        if (index < 0 || index >= fieldCount) {return null;}
+        int start = index == 0 ? 0 : fieldEnds[index - 1];
+        return new String(fieldChars, start, fieldEnds[index] - start);
+    }
+
+    /** @return String[] Every field of the current record */
+    String[] toArray() {
+        String[] fields = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = get(i);
+        }
+        return fields;
+    }
+
+    private int fieldStart() {
+        return fieldCount == 0 ? 0 : fieldEnds[fieldCount - 1];
+    }
+
+    private void append(char c) {
+        if (fieldLength == fieldChars.length) {
+            fieldChars = java.util.Arrays.copyOf(fieldChars, fieldLength * 2);
+        }
+        fieldChars[fieldLength++] = c;
+    }
+
+    private void endField() {
+        if (fieldCount == fieldEnds.length) {
+            fieldEnds = java.util.Arrays.copyOf(fieldEnds, fieldCount * 2);
+        }
+        fieldEnds[fieldCount++] = fieldLength;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        pos = 0;
+        limit = Math.max(n, 0);
+        return n > 0;
+    }
+}
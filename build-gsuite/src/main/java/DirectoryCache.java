@@ -0,0 +1,213 @@
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.Key;
+
+import com.google.api.services.admin.directory.Directory;
+import com.google.api.services.admin.directory.model.Group;
+import com.google.api.services.admin.directory.model.Groups;
+import com.google.api.services.admin.directory.model.User;
+import com.google.api.services.admin.directory.model.Users;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * On-disk snapshot of the domain's users and groups for the list commands.
+ * A snapshot younger than the TTL is served without any API call.
+ * Refreshing revalidates each stored page with its etag, so pages that
+ * did not change come back as 304 Not Modified and are not downloaded again.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+class DirectoryCache {
+    /** Stored form of one list page and the token used to request it */
+    public static class Page extends GenericJson {
+        @Key public String pageToken;
+        @Key public String nextPageToken;
+        @Key public String etag;
+        @Key public List<User> users;
+        @Key public List<Group> groups;
+    }
+
+    /** Stored form of a whole listing */
+    public static class Snapshot extends GenericJson {
+        @Key public Long fetchedAt;
+        @Key public List<Page> pages;
+    }
+
+    /** Issues the list request for one page; nextPageToken and etag come back in the Page */
+    private interface PageFetcher {
+        Page fetch(String pageToken, String etag) throws IOException;
+    }
+
+    private final File dir;
+    private final long ttlMillis;
+    private final JsonFactory jsonFactory;
+    private final ApiRetry retry;
+
+    /**
+     * @param File Directory holding the snapshot files
+     * @param long Age in milliseconds after which a snapshot is revalidated
+     * @param JsonFactory Factory used to read and write snapshot files
+     * @param ApiRetry Retry layer for the list calls
+     */
+    DirectoryCache(File dir, long ttlMillis, JsonFactory jsonFactory, ApiRetry retry) {
+        this.dir = dir;
+        this.ttlMillis = ttlMillis;
+        this.jsonFactory = jsonFactory;
+        this.retry = retry;
+    }
+
+    /**
+     * All users of the domain, from the snapshot when it is fresh.
+     * @param Directory Service used when the snapshot must be refreshed
+     * @param boolean Revalidate even if the snapshot is within its TTL
+     * @return List<User> Users in the same order listUsers prints them
+     * @throws IOException If the API or the snapshot file cannot be read
+     */
+    List<User> users(final Directory service, boolean refresh) throws IOException {
+        Snapshot snapshot = load("users.json", refresh, new PageFetcher() {
+            @Override
+            public Page fetch(String pageToken, String etag) throws IOException {
+                final Directory.Users.List request = service.users().list()
+                    .setMaxResults(500)
+                    .setPageToken(pageToken)
+                    .setCustomer("my_customer")
+                    .setOrderBy("givenName")
+                    .setProjection("basic")
+                    // Keep every listable column so --columns can change between runs
+                    .setFields(UserColumn.listMask(Arrays.asList(UserColumn.values())));
+                if (etag != null) {request.setRequestHeaders(new HttpHeaders().setIfNoneMatch(etag));}
+                Users result = retry.execute(request::execute);
+                Page page = new Page();
+                page.users = result.getUsers();
+                page.nextPageToken = result.getNextPageToken();
+                page.etag = result.getEtag();
+                return page;
+            }
+        });
+        List<User> users = new ArrayList<>();
+        for (Page page : snapshot.pages) {
+            if (page.users != null) {users.addAll(page.users);}
+        }
+        return users;
+    }
+
+    /**
+     * All groups of the domain, from the snapshot when it is fresh.
+     * @param Directory Service used when the snapshot must be refreshed
+     * @param boolean Revalidate even if the snapshot is within its TTL
+     * @return List<Group> Groups in the same order listGroups prints them
+     * @throws IOException If the API or the snapshot file cannot be read
+     */
+    List<Group> groups(final Directory service, boolean refresh) throws IOException {
+        Snapshot snapshot = load("groups.json", refresh, new PageFetcher() {
+            @Override
+            public Page fetch(String pageToken, String etag) throws IOException {
+                final Directory.Groups.List request = service.groups().list()
+                    .setCustomer("my_customer")
+                    .setPageToken(pageToken)
+                    .setFields(GSuiteTool.GROUP_LIST_MASK);
+                if (etag != null) {request.setRequestHeaders(new HttpHeaders().setIfNoneMatch(etag));}
+                Groups result = retry.execute(request::execute);
+                Page page = new Page();
+                page.groups = result.getGroups();
+                page.nextPageToken = result.getNextPageToken();
+                page.etag = result.getEtag();
+                return page;
+            }
+        });
+        List<Group> groups = new ArrayList<>();
+        for (Page page : snapshot.pages) {
+            if (page.groups != null) {groups.addAll(page.groups);}
+        }
+        return groups;
+    }
+
+    /** Drop the user snapshot, e.g. after users were created or updated. */
+    void invalidateUsers() {
+        new File(dir, "users.json").delete();
+    }
+
+    /**
+     * Read a snapshot, revalidating or rebuilding it when needed.
+     * @param String Snapshot file name
+     * @param boolean Revalidate even within the TTL
+     * @param PageFetcher Issues list requests for this kind of entity
+     * @return Snapshot Fresh snapshot, also written back to disk
+     * @throws IOException If the API or the snapshot file cannot be read
+     */
+    private Snapshot load(String name, boolean refresh, PageFetcher fetcher) throws IOException {
+        File file = new File(dir, name);
+        Snapshot cached = read(file);
+        long now = System.currentTimeMillis();
+        if (cached != null && !refresh && now - cached.fetchedAt < ttlMillis) {
+            return cached;
+        }
+
+        Snapshot fresh = new Snapshot();
+        fresh.pages = new ArrayList<>();
+        List<Page> previous = cached == null ? new ArrayList<Page>() : cached.pages;
+        String token = "";
+        int unchanged = 0;
+        for (int i = 0; token != null; i++) {
+            Page stored = i < previous.size() ? previous.get(i) : null;
+            // Stored pages can only be revalidated while we follow the same tokens
+            boolean sameRequest = stored != null && token.equals(stored.pageToken);
+            Page page;
+            try {
+                page = fetcher.fetch(token, sameRequest ? stored.etag : null);
+            } catch (HttpResponseException e) {
+                if (e.getStatusCode() != 304) {throw e;}
+                page = stored;
+                unchanged++;
+            }
+            page.pageToken = token;
+            fresh.pages.add(page);
+            token = page.nextPageToken;
+        }
+        fresh.fetchedAt = now;
+        if (cached != null) {
+            System.out.printf("Snapshot refreshed: %d of %d pages unchanged%n", unchanged, fresh.pages.size());
+        }
+        write(file, fresh);
+        return fresh;
+    }
+
+    private Snapshot read(File file) {
+        if (!file.isFile()) {return null;}
+        try (InputStream in = new FileInputStream(file)) {
+            Snapshot snapshot = jsonFactory.fromInputStream(in, StandardCharsets.UTF_8, Snapshot.class);
+            return snapshot.fetchedAt == null || snapshot.pages == null ? null : snapshot;
+        } catch (IOException | IllegalArgumentException e) {
+            // Corrupt or outdated snapshot, rebuild it
+            return null;
+        }
+    }
+
+    private void write(File file, Snapshot snapshot) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create "+dir);
+        }
+        File tmp = new File(dir, file.getName()+".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            out.write(jsonFactory.toString(snapshot));
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {throw new IOException("Could not write "+file);}
+        }
+    }
+}
@@ -0,0 +1,214 @@
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInstalledApp;
+import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
+import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.store.FileDataStoreFactory;
+
+import com.google.api.services.admin.directory.Directory;
+import com.google.api.services.admin.directory.DirectoryScopes;
+
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Connection to the Directory API that any number of jobs can share.
+ * Owns the Directory service and a pooled HTTP transport that keeps
+ * connections alive between calls, so jobs in the same process reuse
+ * warmed up TLS connections instead of opening their own.
+ * The access token is kept fresh in the background by a CredentialManager.
+ * Every request is recorded by the client's ApiMetrics.
+ * The service and transport are thread-safe; requests built from them
+ * are not, so each call builds its own request as usual.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+final class DirectoryClient implements Closeable {
+    /** Application name. */
+    static final String APPLICATION_NAME = "Directory API GSuite Tool";
+
+    /** Directory to store user credentials and snapshots for this application. */
+    static final File DATA_STORE_DIR = new File(
+        System.getProperty("user.home"), ".credentials/admin-directory_v1-gsuite-tool");
+
+    /** JSON factory shared by every client. */
+    static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+
+    /** Scopes required
+     *
+     * If modifying these scopes, delete your previously saved credentials
+     * at ~/.credentials/admin-directory_v1-gsuite-tool
+     */
+    private static final List<String> SCOPES =
+        Arrays.asList(
+            DirectoryScopes.ADMIN_DIRECTORY_GROUP_MEMBER,
+            DirectoryScopes.ADMIN_DIRECTORY_USER,
+            DirectoryScopes.ADMIN_DIRECTORY_GROUP_READONLY
+        );
+
+    /** Open connections kept to the API host, enough for several jobs at -j 16 */
+    static final int MAX_CONNECTIONS = 64;
+
+    private final HttpTransport transport;
+    private final Directory service;
+    private final boolean local;
+    private final CredentialManager tokens;
+    private final ApiMetrics metrics;
+
+    private DirectoryClient(HttpTransport transport, Directory service, boolean local,
+            CredentialManager tokens, ApiMetrics metrics) {
+        this.transport = transport;
+        this.service = service;
+        this.local = local;
+        this.tokens = tokens;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Client for the real Directory API, authorized with the stored
+     * credentials or by asking the user to sign in.
+     * @return DirectoryClient Authorized client
+     * @throws IOException If "client_secret.json" not included
+     *                     per Google Admin SDK instructions
+     */
+    static DirectoryClient authorized() throws IOException {
+        HttpTransport transport = pooledTransport(true);
+        // Tokens are refreshed in the background, not by the requests
+        CredentialManager tokens = CredentialManager.start(authorize(transport));
+        ApiMetrics metrics = new ApiMetrics();
+        Directory service = new Directory.Builder(transport, JSON_FACTORY, metrics.instrument(tokens))
+            .setApplicationName(APPLICATION_NAME)
+            .build();
+        return new DirectoryClient(transport, service, false, tokens, metrics);
+    }
+
+    /**
+     * Client for an unauthenticated stand-in for the Directory API.
+     * Only meant for exercising bulk commands offline.
+     * @param String Root url of the stand-in, e.g. http://localhost:8080/
+     * @return DirectoryClient Client sending no credentials
+     * @throws IOException If the transport cannot be set up
+     */
+    static DirectoryClient local(String rootUrl) throws IOException {
+        return local(rootUrl, pooledTransport(false));
+    }
+
+    /**
+     * Client for a stand-in over a given transport, e.g. one that records
+     * or delays requests. The client shuts the transport down on close.
+     * @param String Root url of the stand-in, e.g. http://localhost:8080/
+     * @param HttpTransport Transport for all API calls
+     * @return DirectoryClient Client sending no credentials
+     */
+    static DirectoryClient local(String rootUrl, HttpTransport transport) {
+        ApiMetrics metrics = new ApiMetrics();
+        Directory service = new Directory.Builder(transport, JSON_FACTORY, metrics.instrument(null))
+            .setRootUrl(rootUrl.endsWith("/") ? rootUrl : rootUrl+"/")
+            .setApplicationName(APPLICATION_NAME)
+            .build();
+        return new DirectoryClient(transport, service, true, null, metrics);
+    }
+
+    /**
+     * Creates an authorized Credential object.
+     * @param HttpTransport Transport for the token requests
+     * @return an authorized Credential object.
+     * @throws IOException If "client_secret.json" not included
+     *                     per Google Admin SDK instructions
+     */
+    private static Credential authorize(HttpTransport transport) throws IOException {
+        // Load client secrets.
+        InputStream in =
+            DirectoryClient.class.getResourceAsStream("/client_secret.json");
+        GoogleClientSecrets clientSecrets =
+            GoogleClientSecrets.load(JSON_FACTORY, new InputStreamReader(in));
+
+        // Build flow and trigger user authorization request.
+        GoogleAuthorizationCodeFlow flow =
+            new GoogleAuthorizationCodeFlow.Builder(
+                transport, JSON_FACTORY, clientSecrets, SCOPES)
+                .setDataStoreFactory(new FileDataStoreFactory(DATA_STORE_DIR))
+                .setAccessType("offline")
+                .build();
+        // A stored credential that can refresh itself needs no sign in
+        Credential stored = flow.loadCredential("user");
+        if (stored != null && stored.getRefreshToken() != null) {return stored;}
+        Credential credential = new AuthorizationCodeInstalledApp(
+            flow, new LocalServerReceiver()).authorize("user");
+        System.out.println(
+            "Credentials saved to " + DATA_STORE_DIR.getAbsolutePath());
+        return credential;
+    }
+
+    /**
+     * Apache transport with a thread-safe pool of keep-alive connections.
+     * Nagle is turned off, API calls are small request/response pairs.
+     * @param boolean Trust only Google's certificates, as GoogleNetHttpTransport does
+     * @return HttpTransport Pooled transport
+     * @throws IOException If the trusted certificates cannot be loaded
+     */
+    private static HttpTransport pooledTransport(boolean trusted) throws IOException {
+        ApacheHttpTransport.Builder builder = new ApacheHttpTransport.Builder();
+        if (trusted) {
+            try {
+                builder.trustCertificates(GoogleUtils.getCertificateTrustStore());
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Could not load trusted certificates", e);
+            }
+        }
+        HttpParams params = builder.getHttpParams();
+        ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS));
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        return builder.build();
+    }
+
+    /** @return Directory Service every job of this client builds its requests from */
+    Directory directory() {return service;}
+
+    /** @return boolean True if this client talks to a stand-in rather than Google */
+    boolean isLocal() {return local;}
+
+    /** @return GenericUrl Endpoint batch requests are sent to */
+    GenericUrl batchUrl() {
+        return new GenericUrl(service.getRootUrl()+"batch/admin/directory_v1");
+    }
+
+    /** @return ApiMetrics Counters of every request sent through this client */
+    ApiMetrics metrics() {return metrics;}
+
+    /** @return String Token refresh report, null for a stand-in that needs no tokens */
+    String tokenSummary() {
+        return tokens == null ? null : tokens.summary();
+    }
+
+    /** @return boolean True if a token refresh has failed since the client was opened */
+    boolean tokenTrouble() {
+        return tokens != null && tokens.getFailures() > 0;
+    }
+
+    /** Close every pooled connection. Jobs must be finished first. */
+    @Override
+    public void close() throws IOException {
+        if (tokens != null) {tokens.close();}
+        transport.shutdown();
+    }
+}
@@ -1,38 +1,42 @@
-import com.google.api.client.auth.oauth2.Credential;
-import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInstalledApp;
-import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
-import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
-import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
-import com.google.api.client.http.HttpTransport;
-import com.google.api.client.json.jackson2.JacksonFactory;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.util.store.FileDataStoreFactory;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.util.ArrayMap;
 
 import com.google.api.services.admin.directory.Directory;
-import com.google.api.services.admin.directory.DirectoryScopes;
 
 import com.google.api.services.admin.directory.model.User;
 import com.google.api.services.admin.directory.model.Users;
 import com.google.api.services.admin.directory.model.UserName;
 import com.google.api.services.admin.directory.model.UserOrganization;
 import com.google.api.services.admin.directory.model.Member;
+import com.google.api.services.admin.directory.model.Members;
 import com.google.api.services.admin.directory.model.Groups;
 import com.google.api.services.admin.directory.model.Group;
 
 import java.io.IOException;
-import java.io.FileNotFoundException;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.File;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Tool to interact with Users and Groups in a GSuite domain
@@ -44,108 +48,98 @@ import java.util.HashMap;
  * @version 3.1.1 (10.18.2017)
  */
 public class GSuiteTool {
-    /** Application name. */
-    private static final String APPLICATION_NAME =
-        "Directory API GSuite Tool";
+    /////////////////////////////////
+    //////   PERSONAL FIELDS  ///////
+    /////////////////////////////////
 
-    /** Directory to store user credentials for this application. */
-    private static final java.io.File DATA_STORE_DIR = new java.io.File(
-        System.getProperty("user.home"), ".credentials/admin-directory_v1-gsuite-tool");
+    /** Connection shared with any other job of this process */
+    private final DirectoryClient client;
 
-    /** Global instance of the {@link FileDataStoreFactory}. */
-    private static FileDataStoreFactory DATA_STORE_FACTORY;
+    /** Directory service of the client */
+    private final Directory service;
 
-    /** Global instance of the JSON factory. */
-    private static final JsonFactory JSON_FACTORY =
-        JacksonFactory.getDefaultInstance();
+    /** Options of this run */
+    private final RunConfig config;
 
-    /** Global instance of the HTTP transport. */
-    private static HttpTransport HTTP_TRANSPORT;
+    /** Limiter keeping all workers of this job under the Directory API quota */
+    private final RateLimiter limiter;
 
-    /** Global instance of Directory service. */
-    private static Directory service;
+    /** Retries and adaptive request window shared by every API call of this job */
+    private final ApiRetry retry;
 
-    /** Global instance of scopes required
-     *
-     * If modifying these scopes, delete your previously saved credentials
-     * at ~/.credentials/admin-directory_v1-gsuite-tool
-     */
-    private static final List<String> SCOPES =
-        Arrays.asList(
-            DirectoryScopes.ADMIN_DIRECTORY_GROUP_MEMBER,
-            DirectoryScopes.ADMIN_DIRECTORY_USER,
-            DirectoryScopes.ADMIN_DIRECTORY_GROUP_READONLY
-        );
+    /** Snapshot of users and groups served to list commands */
+    private final DirectoryCache cache;
 
-    static {
-        try {
-            HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
-            DATA_STORE_FACTORY = new FileDataStoreFactory(DATA_STORE_DIR);
-        } catch (Throwable t) {
-            t.printStackTrace();
-            System.exit(1);
-        }
-    }
+    /** Client metrics when this job started, so it reports only its own calls */
+    private final ApiMetrics.Snapshot metricsAtStart;
+
+    /** Rows finished by the current --create or --add run */
+    private RunJournal journal = RunJournal.disabled();
+
+    /** Partial response selector for groups.list, only what listGroups prints */
+    static final String GROUP_LIST_MASK = "nextPageToken,etag,groups(name,email)";
+
+    /** Partial response selector for members.list, only what syncGroups compares */
+    private static final String MEMBER_LIST_MASK = "nextPageToken,members(email,role,type)";
+
+    /** Partial response selector for the users().get done by updateUsers */
+    private static final String UPDATE_GET_MASK = "primaryEmail,organizations";
+
+    /** Partial response selector for the users().list that prefetches updateUsers' state */
+    private static final String UPDATE_LIST_MASK = "nextPageToken,users("+UPDATE_GET_MASK+")";
 
     /**
-     * Creates an authorized Credential object.
-     * @return an authorized Credential object.
-     * @throws IOException If "client_secret.json" not included
-     *                     per Google Admin SDK instructions
+     * Rosters with more rows than this load every user with paged list calls
+     * up front; smaller ones are cheaper to look up one GET at a time.
      */
-    public static Credential authorize() throws IOException {
-        // Load client secrets.
-        InputStream in =
-            GSuiteTool.class.getResourceAsStream("/client_secret.json");
-        GoogleClientSecrets clientSecrets =
-            GoogleClientSecrets.load(JSON_FACTORY, new InputStreamReader(in));
+    private static final int PREFETCH_THRESHOLD = 500;
 
-        // Build flow and trigger user authorization request.
-        GoogleAuthorizationCodeFlow flow =
-            new GoogleAuthorizationCodeFlow.Builder(
-                HTTP_TRANSPORT, JSON_FACTORY, clientSecrets, SCOPES)
-                .setDataStoreFactory(DATA_STORE_FACTORY)
-                .setAccessType("offline")
-                .build();
-        Credential credential = new AuthorizationCodeInstalledApp(
-            flow, new LocalServerReceiver()).authorize("user");
-        System.out.println(
-            "Credentials saved to " + DATA_STORE_DIR.getAbsolutePath());
-        return credential;
-    }
+    /** Most calls the API accepts in a single batch envelope */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    /** Attempts made for each batched call before reporting failure */
+    private static final int MAX_BATCH_ATTEMPTS = ApiRetry.MAX_ATTEMPTS;
+
+    /** Partial response selector for the users().get polled until a new user is visible */
+    private static final String READY_GET_MASK = "id";
+
+    /** Times --onboard looks for a new user before leaving its groups for later */
+    static final int READY_POLLS = 8;
+
+    /** Wait before the second look for a new user, doubled for each later one up to the max */
+    private static final long READY_DELAY_MILLIS = 250;
+    private static final long READY_MAX_DELAY_MILLIS = 4000;
 
     /**
-     * Build and return an authorized Admin SDK Directory client service.
-     * @return an authorized Directory client service
-     * @throws IOException  If authorize() fails to find
-     *                      necessary files for authorization
+     * One job over a client. Jobs get their own limiter, retry window,
+     * snapshot and journal, but share the client's connection pool, so
+     * several of them can run side by side in one process.
+     * @param DirectoryClient Connection to the API, may be shared with other jobs
+     * @param RunConfig Options of this job
      */
-    public static Directory getDirectoryService() throws IOException {
-        Credential credential = authorize();
-        return new Directory.Builder(
-            HTTP_TRANSPORT, JSON_FACTORY, credential)
-            .setApplicationName(APPLICATION_NAME)
-            .build();
+    GSuiteTool(DirectoryClient client, RunConfig config) {
+        this.client = client;
+        this.service = client.directory();
+        this.config = config;
+        this.limiter = new RateLimiter(config.rate);
+        this.retry = new ApiRetry(limiter, config.parallelism);
+        // Keep a stand-in's directory out of the real domain's snapshot
+        this.cache = new DirectoryCache(
+            new File(DirectoryClient.DATA_STORE_DIR, client.isLocal() ? "snapshot-local" : "snapshot"),
+            (long) (config.cacheTtl * 60 * 1000), DirectoryClient.JSON_FACTORY, retry);
+        this.metricsAtStart = client.metrics().snapshot();
     }
 
-    /////////////////////////////////
-    //////   PERSONAL FIELDS  ///////
-    /////////////////////////////////
+    /**
+     * Executor for the rows of a bulk command, on virtual threads if asked for and available.
+     * @return BulkExecutor Executor with -j workers or requests in flight
+     */
+    private BulkExecutor newExecutor() {
+        return new BulkExecutor(config.parallelism, config.virtualThreads);
+    }
 
-    /** Other globals for flag usage
-     * Want to refactor this design; suggestions are welcome
-     */
-    private static boolean dryRun = false;
-    private static boolean verbose = true;
-    private static boolean listUsers = false;
-    private static boolean listGroups = false;
-    private static boolean addMembers = false;
-    private static boolean createUsers = false;
-    private static boolean example = false;
-    private static boolean update = false;
-    private static boolean testing = false;
-    private static boolean debug = false;
-    private static String path = "";
+    /** @return ApiRetry Call counters of this job */
+    ApiRetry getRetry() {return retry;}
 
     /////////////////////////////////
     /////////////////////////////////
@@ -160,30 +154,68 @@ public class GSuiteTool {
     enum Flag {
         ADD("-a --add --groups",
                 "Add members to a group. [REQUIRES PATH]"),
+        BATCH("-b --batch",
+                "Send group additions in batches of up to 1000 requests."),
+        CACHE("-ttl --cache-ttl",
+                "Defines next arg as minutes list commands may use the local snapshot."),
+        COLUMNS("-cols --columns",
+                "Defines next arg as comma separated columns for --list-users."),
         CREATE("-c --create",
                 "Create new users. [REQUIRES PATH]"),
+        DAEMON("--daemon",
+                "Keep running and serve the commands of bash gsuite over loopback, with credentials and connections kept warm."),
         DEBUG("-d --debug",
                 "Print extra details for debugging."),
         DRY("-n --dry",
                 "Do a dryRun. Doesn't make any changes."),
         EXAMPLE("-e --example",
                 "Print out a line of the expected headers for imports."),
+        FORMAT("-f --format",
+                "Defines next arg as the format of list commands: csv, jsonl or columnar (binary, needs --output)."),
+        GROUPSOF("-go --groups-of",
+                "Defines next arg as an email; list every group it is in, including through nested groups."),
         HELP("-? -h --help",
                 "Print this message then exit."),
         LISTGROUPS("-lg --list-groups",
                 "List all groups in domain."),
         LISTUSERS("-lu --list-users",
                 "List all users in domain."),
+        METRICS("--metrics",
+                "Defines next arg as a file to write per-call API metrics to: JSON if it ends in .json, Prometheus text otherwise."),
+        NOVALIDATE("--no-validate",
+                "Skip the pre-flight check of every row of the data file before a bulk command."),
+        ONBOARD("--onboard",
+                "Create users and add each to its groups as soon as the API can see it. [REQUIRES PATH]"),
+        OUTPUT("-o --output",
+                "Defines next arg as a file the list command writes to instead of the console."),
+        PARALLEL("-j --parallelism",
+                "Defines next arg as number of concurrent requests for bulk commands."),
         PATH("-p --path",
                 "Defines next arg as (full) path to UTF-8 csv formated data file."),
+        RATE("-q --rate",
+                "Defines next arg as max API requests per second. Default 40."),
+        REFRESH("--refresh",
+                "Revalidate the local snapshot before listing, fetching only changed pages."),
         RESET("-r --reset",
                 "Reset permission levels after changing scopes."),
+        RESUME("--resume",
+                "Skip rows an interrupted --create or --add run on the same file finished."),
+        ROOT("--root-url",
+                "Defines next arg as the API root url, e.g. a local test server. Sends no credentials."),
+        STOP("--stop-daemon",
+                "Stop a running --daemon."),
+        SYNC("-s --sync-groups",
+                "Make membership of groups in the file match it, adding and removing members. [REQUIRES PATH]"),
         TEST("-t --test",
                 "Test method for new implementations."),
         UPDATE("-u --update",
                 "Update organization fields of users. [REQUIRES PATH]"),
         VERBOSE("-v --verbose",
-                "Turn on full output.");
+                "Turn on full output."),
+        VIRTUAL("--virtual-threads",
+                "Run each row of bulk commands on its own virtual thread (JDK 21+); -j then caps requests in flight."),
+        WHOISIN("-wi --who-is-in",
+                "Defines next arg as a group email; list its members, including members of nested groups.");
 
         String aliases;
         String description;
@@ -194,37 +226,119 @@ public class GSuiteTool {
         }
 
         // Want a way to simplify this
-        public void go(String[] args, int index) {
+        /**
+         * Apply this flag to the options being parsed
+         * @param RunConfig.Builder Options collected so far
+         * @return int Number of following args consumed as values
+         */
+        public int go(String[] args, int index, RunConfig.Builder config) {
             switch (this) {
-                case ADD        :   addMembers = true;
+                case ADD        :   config.addMembers(true);
                                     break;
-                case CREATE     :   createUsers = true;
+                case BATCH      :   config.batch(true);
                                     break;
-                case DEBUG      :   debug = true;
+                case CACHE      :   config.cacheTtl(parseNumber(args, index).doubleValue());
+                                    return 1;
+                case COLUMNS    :   config.columns(parseColumns(args, index));
+                                    return 1;
+                case CREATE     :   config.createUsers(true);
                                     break;
-                case DRY        :   dryRun = true;
+                case DAEMON     :   config.daemon(true);
                                     break;
-                case EXAMPLE    :   example = true;
+                case DEBUG      :   config.debug(true);
                                     break;
+                case DRY        :   config.dryRun(true);
+                                    break;
+                case EXAMPLE    :   config.example(true);
+                                    break;
+                case FORMAT     :   config.format(parseFormat(args, index));
+                                    return 1;
+                case GROUPSOF   :   config.groupsOf(parseValue(args, index));
+                                    return 1;
                 case HELP       :   help();
                                     break;
-                case LISTGROUPS :   listGroups = true;
+                case LISTGROUPS :   config.listGroups(true);
+                                    break;
+                case LISTUSERS  :   config.listUsers(true);
+                                    break;
+                case METRICS    :   config.metrics(parseValue(args, index));
+                                    return 1;
+                case NOVALIDATE :   config.noValidate(true);
                                     break;
-                case LISTUSERS  :   listUsers = true;
+                case ONBOARD    :   config.onboard(true);
                                     break;
-                case PATH       :   path = args[index+1];
+                case OUTPUT     :   config.output(parseValue(args, index));
+                                    return 1;
+                case PARALLEL   :   config.parallelism(parseNumber(args, index).intValue());
+                                    return 1;
+                case PATH       :   config.path(args[index+1]);
+                                    return 1;
+                case RATE       :   config.rate(parseNumber(args, index).doubleValue());
+                                    return 1;
+                case REFRESH    :   config.refresh(true);
                                     break;
                 case RESET      :   deletePermissions();
                                     break;
-                case TEST       :   testing = true;
+                case RESUME     :   config.resume(true);
+                                    break;
+                case ROOT       :   config.rootUrl(parseValue(args, index));
+                                    return 1;
+                case STOP       :   config.stopDaemon(true);
+                                    break;
+                case SYNC       :   config.syncGroups(true);
+                                    break;
+                case TEST       :   config.testing(true);
                                     break;
-                case UPDATE     :   update = true;
+                case UPDATE     :   config.update(true);
                                     break;
-                case VERBOSE    :   verbose = true;
+                case VERBOSE    :   config.verbose(true);
                                     break;
+                case VIRTUAL    :   config.virtualThreads(true);
+                                    break;
+                case WHOISIN    :   config.whoIsIn(parseValue(args, index));
+                                    return 1;
                 default         :   System.out.printf("The flag %s is not implemented, but it matched %s%n", args[index], this);
                                     break;
             }
+            return 0;
+        }
+
+        private static List<UserColumn> parseColumns(String[] args, int index) {
+            try {
+                return UserColumn.parse(args[index+1]);
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                System.out.printf("%s requires a list of columns from %s%n",
+                    args[index], UserColumn.available());
+                throw new Exit(2);
+            }
+        }
+
+        private static OutputSink.Format parseFormat(String[] args, int index) {
+            try {
+                return OutputSink.Format.parse(args[index+1]);
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                System.out.printf("%s requires one of %s%n", args[index], Arrays.toString(OutputSink.Format.values()));
+                throw new Exit(2);
+            }
+        }
+
+        private static String parseValue(String[] args, int index) {
+            if (index+1 < args.length && !args[index+1].startsWith("-")) {return args[index+1];}
+            System.out.printf("%s requires a value%n", args[index]);
+            help();
+            throw new Exit(2);
+        }
+
+        private static Double parseNumber(String[] args, int index) {
+            try {
+                Double value = Double.valueOf(args[index+1]);
+                if (value > 0) {return value;}
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                // Fall through to usage message
+            }
+            System.out.printf("%s requires a positive number%n", args[index]);
+            help();
+            throw new Exit(2);
         }
 
         public boolean matches(String flag) {
@@ -251,227 +365,926 @@ public class GSuiteTool {
     /////////////////////////////////
 
     /**
-     * List each user in the Domain
+     * List each user in the Domain, to the console or --output in --format
      * @throws IOException If API command cannot be completed as called
      */
-    private static void listUsers() throws IOException {
-        if (dryRun) {
+    private void listUsers() throws IOException {
+        if (config.dryRun) {
             String name = new Object(){}.getClass().getEnclosingMethod().getName();
             System.out.println("Dry-run not implemented for "+name+" - Aborting method");
             return;
         }
-        try {
-            String token = "";
-            System.out.println("Users:");
-            System.out.println("firstName,lastName,email,title");
-            while (token != null) {
-                Users result = service.users().list()
-                    .setMaxResults(500)
-                    .setPageToken(token)
-                    .setCustomer("my_customer")
-                    .setOrderBy("givenName")
-                    .setProjection("full")
-                    .execute();
-
-                List<User> users = result.getUsers();
-                if (users == null || users.size() == 0) {
-                    System.out.println("No users found.");
-                    return;
+        List<String> header = new ArrayList<>();
+        for (UserColumn column : config.columns) {header.add(column.getHeader());}
+        if (config.output == null) {System.out.println("Users:");}
+        long written;
+        try (OutputSink sink = openSink(header)) {
+            if (config.useCache()) {
+                for (User user : cache.users(service, config.refresh)) {
+                    sink.write(userValues(user, config.columns));
                 }
-                for (User user : users) {
-                    String title = "";
-                    try {
-                        // Suppressing here since it is almost guaranteed that
-                        // ArrayList<ArrayMap<String, Object>> is used for user organizations.
-                        // If not, this exception is caught by ClassCastException
-                        @SuppressWarnings("unchecked")
-                        ArrayMap<String, String> organizations = (ArrayMap)((ArrayList)user.getOrganizations()).get(0);
-                        title = organizations.get("title");
-                        if (title == null) {title="";}
-                    } catch (NullPointerException e) { // organizations is probably null
-                        title = "";
-                    } catch (ClassCastException ce ) { // wrong data structure casted above
-                        title = "";
-                        System.out.println(user.getPrimaryEmail()+" does not have standard structure for title/dept fields.");
+            } else {
+                // Next page is requested while this one is written
+                try (Pager<Users> pages = new Pager<>(
+                        pageToken -> retry.execute(() -> service.users().list()
+                            .setMaxResults(500)
+                            .setPageToken(pageToken)
+                            .setCustomer("my_customer")
+                            .setOrderBy("givenName")
+                            .setProjection("basic")
+                            .setFields(UserColumn.listMask(config.columns))
+                            .execute()),
+                        Users::getNextPageToken)) {
+                    for (Users result = pages.next(); result != null; result = pages.next()) {
+                        if (result.getUsers() == null) {continue;}
+                        for (User user : result.getUsers()) {
+                            sink.write(userValues(user, config.columns));
+                        }
                     }
-                    System.out.println(user.getName().getGivenName()+","
-                    +user.getName().getFamilyName()+","
-                    +user.getPrimaryEmail()+","
-                    +title);
                 }
-                token = result.getNextPageToken();
             }
+            written = sink.getRows();
         } catch (GoogleJsonResponseException e) {
             System.out.println(" - Could not list users");
-            if (verbose) {System.out.println(" - Error: "+e);}
+            if (config.verbose) {System.out.println(" - Error: "+e);}
+            return;
+        }
+        if (written == 0) {
+            System.out.println("No users found.");
+        } else if (config.output != null) {
+            System.out.println("Wrote "+written+" users to "+config.output+" as "+config.format);
+        }
+    }
+
+    /**
+     * Sink for the rows of a list command, as chosen by --output and --format
+     * @param List<String> Column names
+     * @return OutputSink Open sink, header already written
+     * @throws IOException If --output cannot be created
+     */
+    private OutputSink openSink(List<String> header) throws IOException {
+        return OutputSink.open(config.format, config.output, header);
+    }
+
+    /**
+     * Values of one row of the user listing, with the columns chosen by --columns
+     * @param User Directory user to read
+     * @param List<UserColumn> Columns to read
+     * @return String[] Value of each column, null where the user has none
+     */
+    static String[] userValues(User user, List<UserColumn> columns) {
+        Map<String, Object> org = null;
+        try {
+            // Suppressing here since it is almost guaranteed that
+            // ArrayList<ArrayMap<String, Object>> is used for user organizations.
+            // If not, this exception is caught by ClassCastException
+            @SuppressWarnings("unchecked")
+            ArrayMap<String, Object> organizations = (ArrayMap)((ArrayList)user.getOrganizations()).get(0);
+            org = organizations;
+        } catch (NullPointerException | IndexOutOfBoundsException e) { // organizations is probably null
+            org = null;
+        } catch (ClassCastException ce ) { // wrong data structure casted above
+            org = null;
+            System.out.println(user.getPrimaryEmail()+" does not have standard structure for title/dept fields.");
+        }
+        String[] values = new String[columns.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = columns.get(i).valueOf(user, org);
         }
+        return values;
     }
 
     /**
-     * List every group in Domain
+     * List every group in Domain, to the console or --output in --format
      * @throws IOException If API command cannot be completed as called
      */
-    private static void listGroups() throws IOException {
-        if (dryRun) {
+    private void listGroups() throws IOException {
+        if (config.dryRun) {
             String name = new Object(){}.getClass().getEnclosingMethod().getName();
             System.out.println("Dry-run not implemented for "+name+" - Aborting method");
             return;
         }
-        try {
-            String token = "";
-            while (token != null) {
-                Groups result = service.groups().list()
-                    .setCustomer("my_customer")
-                    .setPageToken(token)
-                    .execute();
-                List<Group> groups = result.getGroups();
-                if (groups == null || groups.size() == 0) {
-                    System.out.println("No groups found.");
-                } else {
-                    System.out.println("Groups:");
-                    for (Group g : groups) {
-                        System.out.println(g.getName()+", "+g.getEmail());
+        if (config.output == null) {System.out.println("Groups:");}
+        long written;
+        try (OutputSink sink = openSink(Arrays.asList("name", "email"))) {
+            if (config.useCache()) {
+                for (Group g : cache.groups(service, config.refresh)) {
+                    sink.write(new String[] {g.getName(), g.getEmail()});
+                }
+            } else {
+                // Next page is requested while this one is written
+                try (Pager<Groups> pages = new Pager<>(
+                        pageToken -> retry.execute(() -> service.groups().list()
+                            .setCustomer("my_customer")
+                            .setPageToken(pageToken)
+                            .setFields(GROUP_LIST_MASK)
+                            .execute()),
+                        Groups::getNextPageToken)) {
+                    for (Groups result = pages.next(); result != null; result = pages.next()) {
+                        if (result.getGroups() == null) {continue;}
+                        for (Group g : result.getGroups()) {
+                            sink.write(new String[] {g.getName(), g.getEmail()});
+                        }
                     }
-                    token = result.getNextPageToken();
                 }
             }
+            written = sink.getRows();
         } catch (GoogleJsonResponseException e) {
             System.out.println(" - Could not list groups");
-            if (verbose) {System.out.println(" - Error: "+e);}
+            if (config.verbose) {System.out.println(" - Error: "+e);}
+            return;
+        }
+        if (written == 0) {
+            System.out.println("No groups found.");
+        } else if (config.output != null) {
+            System.out.println("Wrote "+written+" groups to "+config.output+" as "+config.format);
+        }
+    }
+
+    /**
+     * Answer --who-is-in and --groups-of from a membership index of the domain.
+     * Groups come from the group snapshot, members of all groups are
+     * loaded concurrently once and then every query is served locally.
+     * @throws IOException If API call fails. Usually if service is not instantiated.
+     */
+    private void queryMembership() throws IOException {
+        List<String> groups = new ArrayList<>();
+        for (Group g : cache.groups(service, config.refresh)) {
+            if (g.getEmail() != null) {groups.add(g.getEmail().toLowerCase());}
+        }
+        Map<String, Set<String>> members = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Boolean>> e : loadMembers(groups).entrySet()) {
+            members.put(e.getKey(), e.getValue().keySet());
+        }
+        MembershipIndex index = MembershipIndex.build(members);
+        if (config.verbose) {System.out.println("Indexed "+index.groupCount()+" groups");}
+
+        if (config.whoIsIn != null) {
+            List<String> found = index.effectiveMembers(config.whoIsIn);
+            if (found == null) {
+                System.out.println("No group "+config.whoIsIn+" in domain");
+            } else {
+                System.out.println("Members of "+config.whoIsIn+" ("+found.size()+"):");
+                for (String email : found) {
+                    System.out.println(email+(index.isDirectMember(config.whoIsIn, email) ? "" : " (nested)"));
+                }
+            }
+        }
+        if (config.groupsOf != null) {
+            List<String> found = index.groupsOf(config.groupsOf);
+            System.out.println("Groups of "+config.groupsOf+" ("+found.size()+"):");
+            for (String group : found) {
+                System.out.println(group+(index.isDirectMember(group, config.groupsOf) ? "" : " (nested)"));
+            }
         }
     }
 
     /**
      * Add existing users as members to list of groups
-     * @param ArrayList<UserData> List of users to add as members to given groups.
+     * @param Iterator<UserData> Users to add as members to given groups, read lazily.
      * @throws IOException If API call fails. Usually if service is not instantiated.
      */
-    private static void addMembers(ArrayList<UserData> roster) throws IOException {
-        if (dryRun) {
+    void addMembers(Iterator<UserData> roster) throws IOException {
+        if (config.dryRun) {
             String name = new Object(){}.getClass().getEnclosingMethod().getName();
             System.out.println("Dry-run not implemented for "+name+" - Aborting method");
             return;
         }
-        for (UserData data : roster) {
+        if (config.batch) {
+            addMembersBatched(roster);
+            return;
+        }
+        BulkExecutor executor = newExecutor();
+        int row = 0;
+        while (roster.hasNext()) {
+            final UserData data = roster.next();
+            final int rowNumber = ++row;
+            executor.submit(() -> addMember(rowNumber, data));
+        }
+        executor.finish("users");
+    }
+
+    /**
+     * Groups listed on a row, separated by spaces.
+     * @param UserData Row of the roster
+     * @return String[] Group emails, empty when the groups column is blank or missing
+     */
+    static String[] groupsOf(UserData data) {
+        String groups = data.getGroups();
+        if (groups == null || groups.trim().isEmpty()) {return new String[0];}
+        return groups.trim().split(" +");
+    }
+
+    /**
+     * Add one user to each group of their row, one insert after another.
+     * Output is collected rather than printed so concurrent rows do not interleave.
+     * @param int Row number in the roster, for the journal
+     * @param UserData Row naming the user and their groups
+     * @return BulkExecutor.Result Success if every insert worked, and the report
+     * @throws IOException If the journal cannot be written
+     */
+    private BulkExecutor.Result addMember(int row, UserData data) throws IOException {
+        String email = data.getEmail();
+        String[] groups = groupsOf(data);
+        StringBuilder out = new StringBuilder();
+        if (groups.length == 0) {
+            out.append("No groups provided for "+email).append(System.lineSeparator());
+            return new BulkExecutor.Result(false, out.toString());
+        }
+
+        Member m = new Member();
+        m.setEmail(email);
+
+        boolean success = true;
+        for (int i=0; i<groups.length; i++) {
+            final String group = groups[i];
+            if (journal.isDone(row, email, group)) {continue;}
+            out.append("INSERT "+email+" INTO "+group);
+            try {
+                retry.executeInsert(() -> service.members()
+                       .insert(group, m)
+                       .execute());
+                out.append(" - Success!").append(System.lineSeparator());
+                journal.record(row, email, group, true);
+            } catch (GoogleJsonResponseException e) {
+                success = false;
+                // Already a member is as good as added when resuming
+                journal.record(row, email, group, ApiRetry.classify(e) == ApiRetry.ErrorKind.DUPLICATE);
+                out.append(" - Failure").append(System.lineSeparator());
+                if (config.verbose) {
+                    out.append(" - "+email+" was not added to group "+groups[i]).append(System.lineSeparator());
+                    out.append(" - Error: "+e).append(System.lineSeparator());
+                }
+            }
+        }
+        return new BulkExecutor.Result(success, out.toString());
+    }
+
+    /**
+     * Add existing users to groups by packing the inserts into batch requests.
+     * Each (user, group) pair is reported as it completes. Pairs that failed
+     * for transient reasons (rate limits, backend errors) are retried with
+     * backoff in later batches; all other failures are reported right away.
+     * @param Iterator<UserData> Users to add as members to given groups, read lazily.
+     * @throws IOException If a batch could not be sent at all.
+     */
+    private void addMembersBatched(Iterator<UserData> roster) throws IOException {
+        List<String[]> retries = new ArrayList<>();
+        List<String[]> envelope = new ArrayList<>();
+        int row = 0;
+        while (roster.hasNext()) {
+            UserData data = roster.next();
+            row++;
             String email = data.getEmail();
-            String[] groups = data.getGroups().split(" ");
-            if (groups.length == 0) {
-                System.out.println("No groups provided for "+email);
-                continue;
+            for (String group : groupsOf(data)) {
+                if (journal.isDone(row, email, group)) {continue;}
+                envelope.add(new String[] {email, group, String.valueOf(row)});
+                if (envelope.size() == MAX_BATCH_SIZE) {
+                    sendMemberBatch(envelope, retries, 1);
+                    envelope.clear();
+                }
+            }
+        }
+        sendMemberBatch(envelope, retries, 1);
+
+        for (int attempt = 2; attempt <= MAX_BATCH_ATTEMPTS && !retries.isEmpty(); attempt++) {
+            List<String[]> failed = retries;
+            retries = new ArrayList<>();
+            retry.backoff(attempt - 1);
+            for (int from = 0; from < failed.size(); from += MAX_BATCH_SIZE) {
+                sendMemberBatch(failed.subList(from, Math.min(failed.size(), from + MAX_BATCH_SIZE)),
+                    retries, attempt);
             }
+        }
+    }
 
+    /**
+     * Send one batch of member inserts.
+     * @param List<String[]> (email, group, row) entries, at most MAX_BATCH_SIZE
+     * @param List<String[]> Collects pairs that should be tried again
+     * @param int Which attempt this is, starting at 1
+     * @throws IOException If the batch envelope itself fails
+     */
+    private void sendMemberBatch(List<String[]> pairs, final List<String[]> retries,
+            final int attempt) throws IOException {
+        if (pairs.isEmpty()) {return;}
+        BatchRequest request = service.batch();
+        request.setBatchUrl(client.batchUrl());
+        for (final String[] pair : pairs) {
             Member m = new Member();
-            m.setEmail(email);
-
-            for (int i=0; i<groups.length; i++) {
-                System.out.print("INSERT "+email+" INTO "+groups[i]);
-                if (dryRun) {
-                    System.out.println(" - Dry run enabled");
-                } else {
-                    try {
-                        service.members()
-                               .insert(groups[i], m)
-                               .execute();
-                        System.out.println(" - Success!");
-                    } catch (GoogleJsonResponseException e) {
-                        System.out.println(" - Failure");
-                        if (verbose) {
-                            System.out.println(" - "+email+" was not added to group "+groups[i]);
-                            System.out.println(" - Error: "+e);
+            m.setEmail(pair[0]);
+            service.members()
+                   .insert(pair[1], m)
+                   .queue(request, new JsonBatchCallback<Member>() {
+                        @Override
+                        public void onSuccess(Member member, HttpHeaders headers) throws IOException {
+                            System.out.println("INSERT "+pair[0]+" INTO "+pair[1]+" - Success!");
+                            journal.record(Integer.parseInt(pair[2]), pair[0], pair[1], true);
+                        }
+                        @Override
+                        public void onFailure(GoogleJsonError e, HttpHeaders headers) throws IOException {
+                            ApiRetry.ErrorKind kind = ApiRetry.classify(e);
+                            if (kind == ApiRetry.ErrorKind.RATE_LIMIT) {retry.onThrottle();}
+                            if (attempt < MAX_BATCH_ATTEMPTS && kind.isRetryable()) {
+                                retries.add(pair);
+                                return;
+                            }
+                            journal.record(Integer.parseInt(pair[2]), pair[0], pair[1],
+                                kind == ApiRetry.ErrorKind.DUPLICATE);
+                            System.out.println("INSERT "+pair[0]+" INTO "+pair[1]+" - Failure");
+                            if (config.verbose) {
+                                System.out.println(" - "+pair[0]+" was not added to group "+pair[1]);
+                                System.out.println(" - Error: "+e.getCode()+" "+e.getMessage());
+                            }
+                        }
+                    });
+        }
+        retry.executeBatch(() -> {
+            request.execute();
+            return null;
+        }, pairs.size());
+    }
+
+    /**
+     * Make the membership of every group named in the file match the file.
+     * Current members of those groups are loaded concurrently, then only
+     * the missing members are inserted and members no longer listed are
+     * removed. Owners, managers and nested groups are never removed.
+     * @param Iterator<UserData> Users and the groups they should belong to, read lazily.
+     * @throws IOException If API call fails. Usually if service is not instantiated.
+     */
+    private void syncGroups(Iterator<UserData> roster) throws IOException {
+        Map<String, Set<String>> desired = new LinkedHashMap<>();
+        while (roster.hasNext()) {
+            UserData data = roster.next();
+            String email = data.getEmail().toLowerCase();
+            for (String group : groupsOf(data)) {
+                group = group.toLowerCase();
+                if (!desired.containsKey(group)) {desired.put(group, new HashSet<String>());}
+                desired.get(group).add(email);
+            }
+        }
+
+        Map<String, Map<String, Boolean>> current = loadMembers(desired.keySet());
+        desired.keySet().retainAll(current.keySet());
+        List<String[]> plan = membershipPlan(desired, current);
+        int inserts = 0;
+        for (String[] change : plan) {
+            if (change[0].equals("INSERT")) {inserts++;}
+        }
+        System.out.printf("Sync plan for %d groups: %d inserts, %d deletes%n",
+            desired.size(), inserts, plan.size() - inserts);
+
+        if (config.dryRun) {
+            for (String[] change : plan) {
+                System.out.println(describe(change)+" - Dry run enabled");
+            }
+        } else if (config.batch) {
+            applyPlanBatched(plan);
+        } else {
+            BulkExecutor executor = newExecutor();
+            for (final String[] change : plan) {
+                executor.submit(() -> applyChange(change));
+            }
+            executor.finish("changes");
+        }
+    }
+
+    /**
+     * Page through the members of each group, several groups at a time.
+     * Groups that cannot be read are reported and left out of the result.
+     * @param Collection<String> Group emails
+     * @return Map<String, Map<String, Boolean>> For each readable group, lower case
+     *         member emails mapped to whether the member may be removed
+     * @throws IOException If loading was interrupted
+     */
+    private Map<String, Map<String, Boolean>> loadMembers(Collection<String> groups) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(config.parallelism, groups.size())));
+        Map<String, Future<Map<String, Boolean>>> pending = new LinkedHashMap<>();
+        for (final String group : groups) {
+            pending.put(group, pool.submit(() -> {
+                Map<String, Boolean> members = new HashMap<>();
+                String token = null;
+                do {
+                    final Directory.Members.List request = service.members().list(group)
+                        .setMaxResults(200)
+                        .setPageToken(token)
+                        .setFields(MEMBER_LIST_MASK);
+                    Members page = retry.execute(request::execute);
+                    if (page.getMembers() != null) {
+                        for (Member m : page.getMembers()) {
+                            if (m.getEmail() == null) {continue;}
+                            members.put(m.getEmail().toLowerCase(),
+                                "MEMBER".equals(m.getRole()) && "USER".equals(m.getType()));
                         }
                     }
+                    token = page.getNextPageToken();
+                } while (token != null);
+                return members;
+            }));
+        }
+        Map<String, Map<String, Boolean>> current = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, Future<Map<String, Boolean>>> e : pending.entrySet()) {
+                try {
+                    current.put(e.getKey(), e.getValue().get());
+                } catch (ExecutionException failed) {
+                    System.out.println("Could not load members of "+e.getKey()+" - Skipping group");
+                    if (config.verbose) {System.out.println(" - Error: "+failed.getCause());}
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading group members", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return current;
+    }
+
+    /**
+     * Smallest set of changes that turns the current membership into the
+     * desired one, groups in file order.
+     * @param Map<String, Set<String>> Lower case member emails wanted in each group
+     * @param Map<String, Map<String, Boolean>> Current members of each group and
+     *        whether they may be removed
+     * @return List<String[]> (INSERT|DELETE, email, group) changes
+     */
+    static List<String[]> membershipPlan(Map<String, Set<String>> desired,
+            Map<String, Map<String, Boolean>> current) {
+        List<String[]> plan = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> e : desired.entrySet()) {
+            String group = e.getKey();
+            Map<String, Boolean> members = current.get(group);
+            if (members == null) {members = Collections.emptyMap();}
+            List<String> missing = new ArrayList<>(e.getValue());
+            missing.removeAll(members.keySet());
+            Collections.sort(missing);
+            for (String email : missing) {
+                plan.add(new String[] {"INSERT", email, group});
+            }
+            List<String> extra = new ArrayList<>();
+            for (Map.Entry<String, Boolean> m : members.entrySet()) {
+                if (m.getValue() && !e.getValue().contains(m.getKey())) {extra.add(m.getKey());}
+            }
+            Collections.sort(extra);
+            for (String email : extra) {
+                plan.add(new String[] {"DELETE", email, group});
+            }
+        }
+        return plan;
+    }
+
+    private static String describe(String[] change) {
+        return change[0].equals("INSERT")
+            ? "INSERT "+change[1]+" INTO "+change[2]
+            : "DELETE "+change[1]+" FROM "+change[2];
+    }
+
+    /**
+     * Apply one planned membership change.
+     * @param String[] (INSERT|DELETE, email, group)
+     * @return BulkExecutor.Result Outcome and report for this change
+     * @throws IOException If API call fails for reasons other than a bad request
+     */
+    private BulkExecutor.Result applyChange(final String[] change) throws IOException {
+        StringBuilder out = new StringBuilder(describe(change));
+        try {
+            if (change[0].equals("INSERT")) {
+                final Member m = new Member();
+                m.setEmail(change[1]);
+                retry.executeInsert(() -> service.members().insert(change[2], m).execute());
+            } else {
+                retry.execute(() -> service.members().delete(change[2], change[1]).execute());
+            }
+            out.append(" - Success!").append(System.lineSeparator());
+            return new BulkExecutor.Result(true, out.toString());
+        } catch (GoogleJsonResponseException e) {
+            out.append(" - Failure").append(System.lineSeparator());
+            if (config.verbose) {out.append(" - Error: "+e).append(System.lineSeparator());}
+            return new BulkExecutor.Result(false, out.toString());
+        }
+    }
+
+    /**
+     * Apply a membership plan in batch requests, retrying transient
+     * failures in later batches like addMembersBatched does.
+     * @param List<String[]> (INSERT|DELETE, email, group) changes
+     * @throws IOException If a batch could not be sent at all.
+     */
+    private void applyPlanBatched(List<String[]> plan) throws IOException {
+        List<String[]> retries = new ArrayList<>();
+        for (int from = 0; from < plan.size(); from += MAX_BATCH_SIZE) {
+            sendChangeBatch(plan.subList(from, Math.min(plan.size(), from + MAX_BATCH_SIZE)), retries, 1);
+        }
+        for (int attempt = 2; attempt <= MAX_BATCH_ATTEMPTS && !retries.isEmpty(); attempt++) {
+            List<String[]> failed = retries;
+            retries = new ArrayList<>();
+            retry.backoff(attempt - 1);
+            for (int from = 0; from < failed.size(); from += MAX_BATCH_SIZE) {
+                sendChangeBatch(failed.subList(from, Math.min(failed.size(), from + MAX_BATCH_SIZE)),
+                    retries, attempt);
+            }
         }
     }
 
     /**
-     * Uses csv data to create new users in domain
-     * @param ArrayList<UserData> Roster of users to create
+     * Send one batch of planned membership changes.
+     * @param List<String[]> (INSERT|DELETE, email, group) changes, at most MAX_BATCH_SIZE
+     * @param List<String[]> Collects changes that should be tried again
+     * @param int Which attempt this is, starting at 1
+     * @throws IOException If the batch envelope itself fails
+     */
+    private void sendChangeBatch(List<String[]> changes, final List<String[]> retries,
+            final int attempt) throws IOException {
+        if (changes.isEmpty()) {return;}
+        BatchRequest request = service.batch();
+        request.setBatchUrl(client.batchUrl());
+        for (final String[] change : changes) {
+            if (change[0].equals("INSERT")) {
+                Member m = new Member();
+                m.setEmail(change[1]);
+                service.members().insert(change[2], m)
+                       .queue(request, new ChangeCallback<Member>(change, retries, attempt));
+            } else {
+                service.members().delete(change[2], change[1])
+                       .queue(request, new ChangeCallback<Void>(change, retries, attempt));
+            }
+        }
+        retry.executeBatch(() -> {
+            request.execute();
+            return null;
+        }, changes.size());
+    }
+
+    /** Reports one planned change of a batch, or sets it aside to retry */
+    private class ChangeCallback<T> extends JsonBatchCallback<T> {
+        private final String[] change;
+        private final List<String[]> retries;
+        private final int attempt;
+
+        ChangeCallback(String[] change, List<String[]> retries, int attempt) {
+            this.change = change;
+            this.retries = retries;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void onSuccess(T result, HttpHeaders headers) {
+            System.out.println(describe(change)+" - Success!");
+        }
+
+        @Override
+        public void onFailure(GoogleJsonError e, HttpHeaders headers) {
+            ApiRetry.ErrorKind kind = ApiRetry.classify(e);
+            if (kind == ApiRetry.ErrorKind.RATE_LIMIT) {retry.onThrottle();}
+            if (attempt < MAX_BATCH_ATTEMPTS && kind.isRetryable()) {
+                retries.add(change);
+                return;
+            }
+            System.out.println(describe(change)+" - Failure");
+            if (config.verbose) {System.out.println(" - Error: "+e.getCode()+" "+e.getMessage());}
+        }
+    }
+
+    /**
+     * Uses csv data to create new users in domain.
+     * Inserts run on --parallelism workers, throttled by the shared limiter,
+     * and are reported in the same order as the roster.
+     * @param Iterator<UserData> Roster of users to create, read lazily
      * @throws IOException If API call fails. Usually if service is not instantiated.
      */
-    private static void createUsers(ArrayList<UserData> roster) throws IOException {
-        if (dryRun) {
+    void createUsers(Iterator<UserData> roster) throws IOException {
+        if (config.dryRun) {
             String name = new Object(){}.getClass().getEnclosingMethod().getName();
             System.out.println("Dry-run not implemented for "+name+" - Aborting method");
             return;
         }
-        for (UserData data : roster) {
-            User u = new User();
-            UserName name = new UserName();
-                    name.setGivenName(data.getFirstName());
-                    name.setFamilyName(data.getLastName());
+        BulkExecutor executor = newExecutor();
+        int row = 0;
+        while (roster.hasNext()) {
+            final UserData data = roster.next();
+            final int rowNumber = ++row;
+            if (journal.isDone(rowNumber, data.getEmail(), null)) {continue;}
+            executor.submit(() -> createUser(rowNumber, data));
+        }
+        executor.finish("users");
+    }
+
+    /**
+     * Create a single user and journal the row. Output is collected rather
+     * than printed so concurrent rows do not interleave.
+     * @param int Row number in the roster, for the journal
+     * @param UserData Row describing the new user
+     * @return BulkExecutor.Result Outcome and report for this row
+     * @throws IOException If API call fails for reasons other than a bad request
+     */
+    private BulkExecutor.Result createUser(int row, UserData data) throws IOException {
+        User u = new User();
+        UserName name = new UserName();
+                name.setGivenName(data.getFirstName());
+                name.setFamilyName(data.getLastName());
 
-            u.setName(name);
-            u.setPrimaryEmail(data.getEmail());
-            u.setPassword(data.getPassword());
+        u.setName(name);
+        u.setPrimaryEmail(data.getEmail());
+        u.setPassword(data.getPassword());
 
-            Object newOrgs = data.getOrganizations();
-            u.setOrganizations(newOrgs);
-            u.setChangePasswordAtNextLogin(true);
-            // Not setting phone data but it would be similar to
-            // setting organizations in practice
+        Object newOrgs = data.getOrganizations();
+        u.setOrganizations(newOrgs);
+        u.setChangePasswordAtNextLogin(true);
+        // Not setting phone data but it would be similar to
+        // setting organizations in practice
 
-            System.out.print("CREATE "+u.getPrimaryEmail());
+        StringBuilder out = new StringBuilder("CREATE "+u.getPrimaryEmail());
+        try {
+            retry.executeInsert(() -> service.users()
+                   .insert(u)
+                   .execute());
+            out.append(" - Success!").append(System.lineSeparator());
+            journal.record(row, data.getEmail(), null, true);
+            return new BulkExecutor.Result(true, out.toString());
+        } catch (GoogleJsonResponseException e) {
+            // Already created is as good as created when resuming, e.g. a
+            // row whose record was lost in a crash before it was synced
+            journal.record(row, data.getEmail(), null, ApiRetry.classify(e) == ApiRetry.ErrorKind.DUPLICATE);
+            out.append(" - Failure").append(System.lineSeparator());
+            out.append(" - "+u.getPrimaryEmail()+" could not be created").append(System.lineSeparator());
+            out.append(" - Error: "+e).append(System.lineSeparator());
+            out.append(u.toPrettyString()).append(System.lineSeparator());
+        } catch (NullPointerException n) {
+            journal.record(row, data.getEmail(), null, false);
+            out.append(" - Failure").append(System.lineSeparator());
+            out.append(n).append(System.lineSeparator());
+            java.io.StringWriter trace = new java.io.StringWriter();
+            n.printStackTrace(new java.io.PrintWriter(trace));
+            out.append(trace);
+        }
+        return new BulkExecutor.Result(false, out.toString());
+    }
+
+    /**
+     * Create users and add them to their groups in one pass. Each row is
+     * created, looked up until the API can see it, then added to its
+     * groups, so the first users are ready while later rows are still
+     * being created. Rows run side by side as in createUsers.
+     * @param Iterator<UserData> Roster of users with their groups, read lazily
+     * @throws IOException If API call fails. Usually if service is not instantiated.
+     */
+    void onboardUsers(Iterator<UserData> roster) throws IOException {
+        if (config.dryRun) {
+            String name = new Object(){}.getClass().getEnclosingMethod().getName();
+            System.out.println("Dry-run not implemented for "+name+" - Aborting method");
+            return;
+        }
+        final long start = System.nanoTime();
+        final AtomicLong firstReady = new AtomicLong(Long.MAX_VALUE);
+        BulkExecutor executor = newExecutor();
+        int row = 0;
+        while (roster.hasNext()) {
+            final UserData data = roster.next();
+            final int rowNumber = ++row;
+            executor.submit(() -> {
+                BulkExecutor.Result result = onboardUser(rowNumber, data);
+                if (result.success) {firstReady.accumulateAndGet(System.nanoTime() - start, Math::min);}
+                return result;
+            });
+        }
+        executor.finish("users");
+        if (firstReady.get() != Long.MAX_VALUE) {
+            System.out.printf("First user onboarded after %.2fs%n", firstReady.get() / 1e9);
+        }
+    }
+
+    /**
+     * Create one user, wait until it is visible and add it to its groups.
+     * Rows --resume finds created skip straight to the groups not yet done.
+     * @param int Row number in the roster, for the journal
+     * @param UserData Row describing the new user and its groups
+     * @return BulkExecutor.Result Success if the user and every membership were added
+     * @throws IOException If API call fails for reasons other than a bad request
+     */
+    private BulkExecutor.Result onboardUser(int row, UserData data) throws IOException {
+        String email = data.getEmail();
+        StringBuilder out = new StringBuilder();
+        if (!journal.isDone(row, email, null)) {
+            BulkExecutor.Result created = createUser(row, data);
+            out.append(created.report);
+            if (!created.success || !awaitVisible(email, out)) {
+                return new BulkExecutor.Result(false, out.toString());
+            }
+        }
+        if (groupsOf(data).length == 0) {
+            return new BulkExecutor.Result(true, out.toString());
+        }
+        BulkExecutor.Result added = addMember(row, data);
+        return new BulkExecutor.Result(added.success, out.append(added.report).toString());
+    }
+
+    /**
+     * Look up a user just created until the API returns it. The Directory
+     * API is eventually consistent, and adding a user to a group before it
+     * is visible fails with 404. Looks are spaced out with growing delays
+     * and give up after READY_POLLS.
+     * @param String Email of the new user
+     * @param StringBuilder Report of the row
+     * @return boolean True once the user is visible
+     * @throws IOException If interrupted while waiting or the lookup fails for good
+     */
+    private boolean awaitVisible(String email, StringBuilder out) throws IOException {
+        long start = System.nanoTime();
+        long delay = READY_DELAY_MILLIS;
+        for (int poll = 1; poll <= READY_POLLS; poll++) {
             try {
-                service.users()
-                       .insert(u)
-                       .execute();
-                System.out.println(" - Success!");
+                retry.execute(() -> service.users()
+                    .get(email)
+                    .setFields(READY_GET_MASK)
+                    .execute());
+                if (poll > 1) {
+                    out.append(String.format("READY %s after %d lookups, %.1fs%n",
+                        email, poll, (System.nanoTime() - start) / 1e9));
+                }
+                return true;
             } catch (GoogleJsonResponseException e) {
-                System.out.println(" - Failure");
-                System.out.println(" - "+u.getPrimaryEmail()+" could not be created");
-                System.out.println(" - Error: "+e);
-                System.out.println(u.toPrettyString());
-            } catch (NullPointerException n) {
-                System.out.println(" - Failure");
-                System.out.println(n);
-                n.printStackTrace();
+                if (ApiRetry.classify(e) != ApiRetry.ErrorKind.NOT_FOUND) {
+                    out.append("READY "+email+" - Failure").append(System.lineSeparator());
+                    out.append(" - Error: "+e).append(System.lineSeparator());
+                    return false;
+                }
+            }
+            if (poll == READY_POLLS) {break;}
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for "+email, e);
             }
+            delay = Math.min(READY_MAX_DELAY_MILLIS, delay * 2);
         }
+        out.append("READY "+email+" - Not visible after "+READY_POLLS+" lookups, add its groups later with --add")
+            .append(System.lineSeparator());
+        return false;
     }
 
+    /** Outcome of updating a single user */
+    private enum UpdateResult { UNCHANGED, PATCHED, FAILED }
+
     /**
-     * Update user title and department info
-     * @param ArrayList<UserData> Filled with user data to use in update.
+     * Update user title and department info.
+     * Users whose title and department already match the file are skipped,
+     * everyone else gets a patch carrying only their organizations.
+     * Large rosters first load the current state of every user with paged
+     * list calls instead of one GET per row.
+     * @param Iterator<UserData> User data to use in update, read lazily.
      * @throws IOException when API call to execute fails.
      */
-    private static void updateUsers(ArrayList<UserData> roster) throws IOException {
-        for (UserData update : roster) {
-            String email = update.getEmail();
-            // Simple check to see if (Likely) an email address provided
-            // A more thorough RegEx is probably unnecessary.
-            if (! email.contains("@")) {
-              System.out.println(email);
-              continue;
-            }
-            User main = service.users()
-                               .get(update.getEmail())
-                               .execute();
-
-            if (update.getTitle() == null && update.getDept() == null) {
-                main.setOrganizations(update.getOrganizations());
-                continue;
-            } else {
-                main.setOrganizations( updateOrganizations(
-                    main.getOrganizations(),
-                    update.getOrganizations())
-                );
+    private void updateUsers(Iterator<UserData> roster) throws IOException {
+        // Read ahead a bounded number of rows to decide whether prefetching pays off
+        List<UserData> head = new ArrayList<>();
+        while (roster.hasNext() && head.size() <= PREFETCH_THRESHOLD) {
+            head.add(roster.next());
+        }
+        Map<String, User> current = head.size() > PREFETCH_THRESHOLD ? prefetchUsers() : null;
+
+        AtomicIntegerArray outcomes = new AtomicIntegerArray(UpdateResult.values().length);
+        BulkExecutor executor = newExecutor();
+        Iterator<UserData> buffered = head.iterator();
+        while (buffered.hasNext() || roster.hasNext()) {
+            final UserData row = buffered.hasNext() ? buffered.next() : roster.next();
+            executor.submit(() -> {
+                StringBuilder out = new StringBuilder();
+                UpdateResult result = updateUser(row, current, out);
+                outcomes.incrementAndGet(result.ordinal());
+                return new BulkExecutor.Result(result != UpdateResult.FAILED, out.toString());
+            });
+        }
+        executor.finish("users");
+        System.out.printf("Users %s: %d unchanged, %d patched, %d failed%n",
+            config.dryRun ? "checked (dry run)" : "updated", outcomes.get(UpdateResult.UNCHANGED.ordinal()),
+            outcomes.get(UpdateResult.PATCHED.ordinal()), outcomes.get(UpdateResult.FAILED.ordinal()));
+    }
+
+    /**
+     * Load primary email and organizations of every user in the domain.
+     * @return Map<String, User> Users keyed by lower case primary email
+     * @throws IOException when API call to execute fails.
+     */
+    private Map<String, User> prefetchUsers() throws IOException {
+        Map<String, User> index = new HashMap<>();
+        try (Pager<Users> pages = new Pager<>(
+                pageToken -> retry.execute(() -> service.users().list()
+                    .setMaxResults(500)
+                    .setPageToken(pageToken)
+                    .setCustomer("my_customer")
+                    .setProjection("basic")
+                    .setFields(UPDATE_LIST_MASK)
+                    .execute()),
+                Users::getNextPageToken)) {
+            for (Users result = pages.next(); result != null; result = pages.next()) {
+                if (result.getUsers() == null) {continue;}
+                for (User user : result.getUsers()) {
+                    index.put(user.getPrimaryEmail().toLowerCase(), user);
+                }
             }
+        }
+        System.out.println("Loaded current details of "+index.size()+" users");
+        return index;
+    }
 
-            System.out.printf("UPDATE USER %s", main.getPrimaryEmail());
-            try {
-                service.users()
-                    .update(main.getPrimaryEmail(),
-                            main)
-                    .execute();
-                System.out.println(" - Success!");
-            } catch (GoogleJsonResponseException e) {
-                System.out.println(" - Failure");
-                System.out.println(" - Error: "+e);
-                System.out.println(main.toPrettyString());
+    /**
+     * Diff one row against the user's current organizations and patch if needed
+     * @param UserData Row with the desired title and dept
+     * @param Map<String, User> Prefetched users by lower case email, null to GET each user
+     * @param StringBuilder Report of the row, collected so concurrent rows do not interleave
+     * @return UpdateResult Whether the user was unchanged, patched or failed
+     * @throws IOException when API call to execute fails.
+     */
+    private UpdateResult updateUser(UserData update, Map<String, User> current,
+            StringBuilder out) throws IOException {
+        String email = update.getEmail();
+        // Simple check to see if (Likely) an email address provided
+        // A more thorough RegEx is probably unnecessary.
+        if (email == null || ! email.contains("@")) {
+            out.append(email).append(System.lineSeparator());
+            return UpdateResult.FAILED;
+        }
+        if (update.getTitle() == null && update.getDept() == null) {
+            // Nothing in the file to update for this user
+            return UpdateResult.UNCHANGED;
+        }
+
+        // Rows missing from the prefetch (e.g. listed by an alias) fall back to a GET
+        User main = current == null ? null : current.get(email.toLowerCase());
+        try {
+            if (main == null) {
+                main = retry.execute(() -> service.users()
+                              .get(email)
+                              .setFields(UPDATE_GET_MASK)
+                              .execute());
+            }
+        } catch (GoogleJsonResponseException e) {
+            out.append("UPDATE USER "+email+" - Failure").append(System.lineSeparator());
+            out.append(" - Error: "+e).append(System.lineSeparator());
+            return UpdateResult.FAILED;
+        }
+
+        Map<String, String> changes = organizationChanges(main.getOrganizations(), update);
+        if (changes.isEmpty()) {
+            if (config.verbose) {out.append("UPDATE USER "+email+" - No changes").append(System.lineSeparator());}
+            return UpdateResult.UNCHANGED;
+        }
+
+        // Patch body holds only the organizations; everything else is left as is
+        User patch = new User();
+        patch.setOrganizations(updateOrganizations(
+            main.getOrganizations(),
+            update.getOrganizations())
+        );
+
+        out.append("UPDATE USER "+email+" "+changes);
+        if (config.dryRun) {
+            out.append(" - Dry run enabled").append(System.lineSeparator());
+            return UpdateResult.PATCHED;
+        }
+        try {
+            retry.execute(() -> service.users()
+                .patch(email, patch)
+                .execute());
+            out.append(" - Success!").append(System.lineSeparator());
+            return UpdateResult.PATCHED;
+        } catch (GoogleJsonResponseException e) {
+            out.append(" - Failure").append(System.lineSeparator());
+            out.append(" - Error: "+e).append(System.lineSeparator());
+            out.append(patch.toPrettyString()).append(System.lineSeparator());
+            return UpdateResult.FAILED;
+        }
+    }
+
+    /**
+     * Field level diff of a user's primary organization against a row.
+     * Columns missing from the file (null) are never treated as changes.
+     * @param Object Current organizations of the user, may be null
+     * @param UserData Row with the desired values
+     * @return Map<String, String> Organization field to new value, empty if none differ
+     */
+    static Map<String, String> organizationChanges(Object current, UserData update) {
+        Map<?, ?> org = null;
+        try {
+            List<?> orgs = (List<?>) current;
+            if (orgs != null && !orgs.isEmpty()) {org = (Map<?, ?>) orgs.get(0);}
+        } catch (ClassCastException e) {
+            // Unexpected structure; updateOrganizations reports it
+            org = null;
+        }
+        Map<String, String> changes = new LinkedHashMap<>();
+        String[][] wanted = {{"title", update.getTitle()}, {"department", update.getDept()}};
+        for (String[] field : wanted) {
+            if (field[1] == null) {continue;}
+            Object now = org == null ? null : org.get(field[0]);
+            if (!field[1].equals(now == null ? "" : now.toString())) {
+                changes.put(field[0], field[1]);
             }
         }
+        return changes;
     }
 
     /**
@@ -480,7 +1293,7 @@ public class GSuiteTool {
      */
     private static void deletePermissions() {
         try {
-            File credentials = new File(DATA_STORE_DIR+"/StoredCredential");
+            File credentials = new File(DirectoryClient.DATA_STORE_DIR+"/StoredCredential");
             System.out.println("Credentials deleted: "+credentials.delete());
         } catch (Throwable e) {
             System.out.print("Error trying to delete credentials");
@@ -515,7 +1328,7 @@ public class GSuiteTool {
     /**
      * Test method for ideas
      */
-    private static void test(ArrayList<UserData> roster) {
+    private static void test(Iterator<UserData> roster) {
         System.out.println("Nothing is being tested currently");
     }
 
@@ -526,63 +1339,60 @@ public class GSuiteTool {
     /////////////////////////////////
 
     /**
-     * Get the column index of a csv header
-     * @param String header row of csv
-     * @param String search term
-     * @return int column index
+     * Journal for a bulk command over the roster at --path.
+     * Dry runs and missing rosters get a journal that records nothing,
+     * so they never overwrite the journal of a real run.
+     * @param String Command name, part of the journal file name
+     * @return RunJournal Journal to record finished rows in
+     * @throws IOException If the journal cannot be read or created
      */
-    private static int getIndex(String header, String search) {
-        int index = -1;
-        // CSV's can come into multiple formats, invisible chars need stripped
-        String[] columns = header.trim().replaceAll("\\P{Print}", "").split(",");
-        for (int i=0; i<columns.length; i++) {
-            if (search.equals(columns[i])) {
-                index = i;
-                break;
-            }
-        }
-        if (index < 0) {System.out.println(search+" not found in file.");}
-        return index;
+    private RunJournal openJournal(String command) throws IOException {
+        if (config.dryRun || !new File(config.path).isFile()) {return RunJournal.disabled();}
+        return RunJournal.open(RunJournal.forRoster(config.path, command), config.resume);
     }
 
     /**
-     * Method to create a checked data structure containing user-data
-     * for the API calls to GSuite. Relies on the UserData structure.
-     * @param String absolute path to csv file.
-     * @return ArrayList<UserData> Collection of users
+     * Check every row the bulk commands of this run will read, before any
+     * of them sends a request, and stop with all the problems found.
+     * Group names are also looked up in the domain when a command adds members.
      */
-    private static ArrayList<UserData> parseData(String csvPath) {
-        ArrayList<UserData> data = new ArrayList<>();
-        try {
-            // Open up input stream for csv file
-            BufferedReader dataSheet = new java.io.BufferedReader(
-                          new java.io.FileReader(csvPath));
-
-            // Find index for each column header
-            String header = dataSheet.readLine();
-            String[] columns = UserData.getColumns();
-            int[] colIndex = new int[columns.length];
-            // Create in-order, psuedo dictionary by storing index of each column
-            for (int i = 0; i < columns.length; i++) {
-                colIndex[i] = getIndex(header, columns[i]);
-            }
-            // Read each row and set user data
-            for (String line = dataSheet.readLine(); line != null; line = dataSheet.readLine()) {
-                // Note that the '-1' includes empty Strings to maintain allignment
-                String[] row = line.split(",", -1);
-                UserData user = new UserData();
-                for (int i = 0; i < columns.length; i++) {
-                    user.set(columns[i], row[colIndex[i]]);
+    private void validate() throws IOException {
+        RosterValidator validator = RosterValidator.forRun(config);
+        if (validator == null) {return;}
+        long start = System.nanoTime();
+        if (validator.checksGroups()) {
+            try {
+                Set<String> known = new HashSet<>();
+                for (Group g : cache.groups(service, config.refresh)) {
+                    if (g.getEmail() != null) {known.add(g.getEmail().toLowerCase(Locale.ROOT));}
                 }
-                data.add(user);
+                validator.knownGroups(known);
+            } catch (IOException e) {
+                System.out.println("Could not list groups, not checking that they exist: "+e.getMessage());
             }
-        } catch (FileNotFoundException nf) {
-            System.out.println("No file matching \""+csvPath+"\" exists.");
-        } catch (IOException io) {
-            System.out.println("Exception occured while initially parsing data: "+io);
-            System.exit(1);
         }
-        return data;
+        List<RosterValidator.Problem> problems = Collections.emptyList();
+        try {
+            problems = validator.validate(config.path);
+        } catch (UncheckedIOException io) {
+            parseFailure(io);
+        }
+        if (config.verbose || !problems.isEmpty()) {
+            System.out.printf("Checked %d rows in %d ms%n", validator.getRows(), (System.nanoTime() - start) / 1000000);
+        }
+        if (problems.isEmpty()) {return;}
+        for (RosterValidator.Problem p : problems) {System.out.println(p);}
+        System.out.println(problems.size()+" problems in "+config.path+", nothing was changed. Fix them or pass --no-validate");
+        throw new Exit(1);
+    }
+
+    /**
+     * Abort when the data file stops being readable part way through.
+     * @param UncheckedIOException Error raised while streaming the roster
+     */
+    private static void parseFailure(UncheckedIOException io) {
+        System.out.println("Exception occured while parsing data: "+io.getCause());
+        throw new Exit(1);
     }
 
     /**
@@ -596,11 +1406,14 @@ public class GSuiteTool {
     private static Object updateOrganizations(Object main, ArrayList updateOrgs) throws IOException {
         if (updateOrgs == null) {return main;}
         try {
+            if (main == null || ((List) main).isEmpty()) {return updateOrgs;}
             // Need to cast object here. API-Dependent, SHOULD always be ArrayList<ArrayMap<String, Object>>
             ArrayMap mainFields = (ArrayMap)((ArrayList)main).get(0);
             ArrayMap updateFields = (ArrayMap)updateOrgs.get(0);
             for (Object key : updateFields.keySet()) {
-                mainFields.put(key, updateFields.get(key.toString()));
+                // Columns missing from the file must not blank the user's values
+                Object value = updateFields.get(key.toString());
+                if (value != null) {mainFields.put(key, value);}
             }
         } catch (ClassCastException e) {
             System.out.println("User's organization fields are not of the expected type");
@@ -617,32 +1430,155 @@ public class GSuiteTool {
     /////////////////////////////////
 
     /**
-     * Main method handles option flags and calls appropriate functions
-     * @param args Optional flags and pathname information
+     * Run every command the configuration asks for, in a fixed order.
      * @throws IOException If data file cannot be read from or written to
      */
-    public static void main(String[] args) throws IOException {
-        // Reset global flags
-        dryRun = false;
-        verbose = false;
-        listUsers = false;
-        listGroups = false;
-        addMembers = false;
-        createUsers = false;
-        example = false;
-        update = false;
-        testing = false;
-        debug = false;
-        path = "";
-
-        // Parse args
+    void run() throws IOException {
+        String path = config.path;
+        System.out.println("----------------------------------------------------");
+        if (config.virtualThreads && !BulkExecutor.hasVirtualThreads()) {
+            System.out.println("Virtual threads need JDK 21 or later, running rows on "+config.parallelism+" workers");
+        }
+        if (!config.noValidate) {validate();}
+
+        if (config.testing) {
+            System.out.println("Running test method");
+            System.out.println("----------------------------------------------------");
+            if (path.equals("")) {
+                test(Collections.<UserData>emptyIterator());
+            } else {
+                try (RosterReader roster = RosterReader.open(path)) {
+                    test(roster);
+                }
+            }
+            System.out.println("----------------------------------------------------");
+        }
+        if (config.createUsers) {
+            System.out.println("Creating new users from file at "+path);
+            System.out.println("----------------------------------------------------");
+            try (RosterReader roster = RosterReader.open(path);
+                    RunJournal run = openJournal("create")) {
+                journal = run;
+                createUsers(roster);
+                if (!config.dryRun) {cache.invalidateUsers();}
+            } catch (UncheckedIOException io) {
+                parseFailure(io);
+            } finally {
+                journal = RunJournal.disabled();
+            }
+            System.out.println("Remember to add these new users to their email distributions next");
+            System.out.println("----------------------------------------------------");
+        }
+        if (config.onboard) {
+            System.out.println("Onboarding users from file at "+path);
+            System.out.println("----------------------------------------------------");
+            try (RosterReader roster = RosterReader.open(path);
+                    RunJournal run = openJournal("onboard")) {
+                journal = run;
+                onboardUsers(roster);
+                if (!config.dryRun) {cache.invalidateUsers();}
+            } catch (UncheckedIOException io) {
+                parseFailure(io);
+            } finally {
+                journal = RunJournal.disabled();
+            }
+            System.out.println("----------------------------------------------------");
+        }
+        if (config.addMembers) {
+            System.out.println("Adding new members to email distros from file at "+path);
+            System.out.println("----------------------------------------------------");
+            try (RosterReader roster = RosterReader.open(path);
+                    RunJournal run = openJournal("add")) {
+                journal = run;
+                addMembers(roster);
+            } catch (UncheckedIOException io) {
+                parseFailure(io);
+            } finally {
+                journal = RunJournal.disabled();
+            }
+            System.out.println("----------------------------------------------------");
+        }
+        if (config.update) {
+            System.out.println("Updating users' titles from file at "+path);
+            System.out.println("----------------------------------------------------");
+            try (RosterReader roster = RosterReader.open(path)) {
+                updateUsers(roster);
+                if (!config.dryRun) {cache.invalidateUsers();}
+            } catch (UncheckedIOException io) {
+                parseFailure(io);
+            }
+            System.out.println("----------------------------------------------------");
+        }
+        if (config.syncGroups) {
+            System.out.println("Syncing group membership with file at "+path);
+            System.out.println("----------------------------------------------------");
+            try (RosterReader roster = RosterReader.open(path)) {
+                syncGroups(roster);
+            } catch (UncheckedIOException io) {
+                parseFailure(io);
+            }
+            System.out.println("----------------------------------------------------");
+        }
+        if (config.listGroups) {
+            System.out.println("Listing current groups under our domain");
+            System.out.println("----------------------------------------------------");
+            listGroups();
+            System.out.println("----------------------------------------------------");
+        }
+        if (config.listUsers) {
+            System.out.println("Listing current users under our domain");
+            System.out.println("----------------------------------------------------");
+            listUsers();
+            System.out.println("----------------------------------------------------");
+        }
+        if (config.membershipQuery()) {
+            System.out.println("Loading group membership under our domain");
+            System.out.println("----------------------------------------------------");
+            queryMembership();
+            System.out.println("----------------------------------------------------");
+        }
+        if (retry.getRetries() > 0 || config.verbose) {
+            System.out.println(retry.summary());
+        }
+        if ((client.tokenTrouble() || config.verbose) && client.tokenSummary() != null) {
+            System.out.println(client.tokenSummary());
+        }
+        reportMetrics();
+    }
+
+    /**
+     * Print where this job's API time went, after bulk commands or when
+     * asked, and write it to --metrics if given.
+     * @throws IOException If the --metrics file cannot be written
+     */
+    private void reportMetrics() throws IOException {
+        ApiMetrics.Snapshot used = client.metrics().snapshot().minus(metricsAtStart);
+        if (used.isEmpty()) {return;}
+        boolean bulk = config.createUsers || config.onboard || config.addMembers || config.update || config.syncGroups;
+        if (bulk || config.verbose || config.metrics != null) {
+            System.out.print(used.summary());
+        }
+        if (config.metrics != null) {
+            used.write(new File(config.metrics), DirectoryClient.JSON_FACTORY);
+            System.out.println("Metrics written to "+config.metrics);
+        }
+    }
+
+    /**
+     * Turn command line flags into a run configuration.
+     * Unknown flags print the usage message and exit.
+     * @param args Optional flags and pathname information
+     * @return RunConfig Options given by the flags
+     */
+    static RunConfig parseArgs(String[] args) {
+        RunConfig.Builder config = RunConfig.builder();
         // Could we simplify this with hashmap?
         boolean validCommand;
         for (int i=0; i<args.length; i++) {
             validCommand = false;
             for (Flag command : Flag.values()) {
                 if (command.matches(args[i])) {
-                    command.go(args, i);
+                    i += command.go(args, i, config);
                     validCommand = true;
                     break;
                 }
@@ -653,9 +1589,24 @@ public class GSuiteTool {
             if (!validCommand && !args[i].startsWith("/")) {
                 System.out.printf("Command not recognized: '%s'%n", args[i]);
                 help();
-                System.exit(2);
+                throw new Exit(2);
             }
         }
+        return config.build();
+    }
+
+    /**
+     * Run one command line. Without a shared client one is opened for
+     * this command and closed after it; the daemon passes its warm client.
+     * @param args Optional flags and pathname information
+     * @param DirectoryClient Client to run on, null to open one
+     * @param File Directory relative paths are resolved against, null for the current one
+     * @throws IOException If data file cannot be read from or written to
+     * @throws Exit Instead of exiting the JVM, with the exit status
+     */
+    static void command(String[] args, DirectoryClient shared, File workingDir) throws IOException {
+        RunConfig config = parseArgs(args);
+        if (workingDir != null) {config = config.resolvePaths(workingDir);}
 
         // Get help if using tool incorrectly
         if (args.length == 0) {
@@ -664,128 +1615,95 @@ public class GSuiteTool {
             return;
         }
 
-        if (example) {
+        if (config.stopDaemon && shared == null) {
+            System.out.println("No daemon is running");
+            throw new Exit(1);
+        }
+        if (config.daemon) {
+            if (shared != null) {
+                System.out.println("Already running as a daemon");
+                throw new Exit(2);
+            }
+            CommandDaemon.serve(config);
+            return;
+        }
+
+        if (config.output != null && config.listUsers && config.listGroups) {
+            System.out.println("--output takes one list command at a time");
+            throw new Exit(2);
+        }
+        if (config.output == null && config.format == OutputSink.Format.COLUMNAR) {
+            System.out.println("The columnar format is binary, give a file with --output");
+            throw new Exit(2);
+        }
+
+        if (config.example) {
             System.out.println("Example header row for imports.");
             exampleData();
         }
 
-        // Create data list if requested
-        ArrayList<UserData> roster = new ArrayList<>();
-        if (addMembers || createUsers || update) {
-            if (path.equals("")) {
+        // Data file is streamed by each command, only check it was given
+        if (config.addMembers || config.syncGroups || config.createUsers || config.update || config.onboard) {
+            if (config.path.equals("")) {
                 System.out.println("--path not specified!");
                 help();
-                System.exit(3);
-            } else {
-                roster = parseData(path);
+                throw new Exit(3);
             }
         }
 
-        if ( ! (testing || createUsers || addMembers || update || listGroups || listUsers)) {
+        if (!config.needsService()) {
             return;
         }
-        // Build a new authorized API client service.
+        if (shared != null) {
+            new GSuiteTool(shared, config).run();
+            return;
+        }
+        try (DirectoryClient client = openClient(config)) {
+            new GSuiteTool(client, config).run();
+        }
+    }
+
+    /**
+     * Build a new client, authorized unless --root-url points at a stand-in.
+     * @param RunConfig Options naming the API to use
+     * @return DirectoryClient Client ready for jobs
+     * @throws IOException If the client cannot be set up
+     */
+    static DirectoryClient openClient(RunConfig config) throws IOException {
         try {
-            service = getDirectoryService();
+            return config.rootUrl == null ? DirectoryClient.authorized() : DirectoryClient.local(config.rootUrl);
         } catch (NullPointerException n) {
             System.out.println("Missing client_secret.json, cannot init API service");
             n.printStackTrace();
-            System.exit(3);
+            throw new Exit(3);
         }
-        System.out.println("----------------------------------------------------");
+    }
 
-        if (testing) {
-            System.out.println("Running test method");
-            System.out.println("----------------------------------------------------");
-            test(roster);
-            System.out.println("----------------------------------------------------");
-        }
-        if (createUsers) {
-            System.out.println("Creating new users from file at "+path);
-            System.out.println("----------------------------------------------------");
-            createUsers(roster);
-            System.out.println("Remember to add these new users to their email distributions next");
-            System.out.println("----------------------------------------------------");
-        }
-        if (addMembers) {
-            System.out.println("Adding new members to email distros from file at "+path);
-            System.out.println("----------------------------------------------------");
-            addMembers(roster);
-            System.out.println("----------------------------------------------------");
-        }
-        if (update) {
-            System.out.println("Updating users' titles from file at "+path);
-            System.out.println("----------------------------------------------------");
-            updateUsers(roster);
-            System.out.println("----------------------------------------------------");
-        }
-        if (listGroups) {
-            System.out.println("Listing current groups under our domain");
-            System.out.println("----------------------------------------------------");
-            listGroups();
-            System.out.println("----------------------------------------------------");
-        }
-        if (listUsers) {
-            System.out.println("Listing current users under our domain");
-            System.out.println("----------------------------------------------------");
-            listUsers();
-            System.out.println("----------------------------------------------------");
+    /**
+     * Thrown instead of calling System.exit, so a daemon
+     * survives commands that end early. main turns it into the exit status.
+     */
+    static final class Exit extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        Exit(int status) {
+            super("exit "+status, null, false, false);
+            this.status = status;
         }
     }
-}
 
-/**
- * Simple object for accessing information on each user
- * Using this structure for consistent naming and iteration
- */
-class UserData {
-    private ArrayMap<String, String> data;
-    // Column headers
-    // When column headers change, only need to update these names
-    private static final String fName   = "firstName";
-    private static final String lName   = "lastName";
-    private static final String email   = "email"; // Company email address
-    private static final String pw      = "password";
-    private static final String title   = "jobtitle";
-    private static final String phone   = "phone";
-    private static final String dept    = "dept";
-    private static final String groups  = "groups";
-    // Should contain everything declared above
-    private static final String[] columns  = {fName,lName,email,pw,title,phone,dept,groups};
-    public UserData() {
-      data = new ArrayMap<>();
-      // Set default value to null. May not be necessary.
-      for (String col : columns) {
-        data.put(col, null);
-      }
-    }
-    // Since data not altered elsewhere it's unnecessary to write specific set methods.
-    public void set(String key, String value) {data.put(key, value);}
-    // BUT specific methods abstracts the datastructure away for multiple get() uses.
-    // This reduces errors and time spent looking for the key name.
-    public String getFirstName() {return data.get(fName);}
-    public String getLastName() {return data.get(lName);}
-    public String getEmail() {return data.get(email);}
-    public String getPassword() {return data.get(pw);}
-    public String getTitle() {return data.get(title);}
-    public String getPhone() {return data.get(phone);}
-    public String getDept() {return data.get(dept);}
-    public String getGroups() {return data.get(groups);}
-    public static String[] getColumns() {return columns;}
-    // Less necessary but worthy method to simplify update method.
-    public ArrayList<ArrayMap<String, Object>> getOrganizations() {
-        if (getTitle() == null && getDept() == null) {
-            // Not all users need additional fields, leave blank if this is the case.
-            return null;
+    /**
+     * Main method handles option flags and calls appropriate functions
+     * @param args Optional flags and pathname information
+     * @throws IOException If data file cannot be read from or written to
+     */
+    public static void main(String[] args) throws IOException {
+        try {
+            command(args, null, null);
+        } catch (Exit e) {
+            System.exit(e.status);
         }
-        // Note that this ArrayMap ignores null values
-        ArrayList<ArrayMap<String, Object>> fieldsWrapper = new ArrayList<>();
-        ArrayMap<String, Object> fields = new ArrayMap<>();
-        fields.put("title", getTitle());
-        fields.put("dept", getDept());
-        fields.put("primary", new Boolean(true));
-        fields.put("customType", "");
-        fieldsWrapper.add(fields);
-        return fieldsWrapper;
     }
 }
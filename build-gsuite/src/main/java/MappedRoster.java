@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * Reads a roster csv in parallel for passes over every row, such as the
+ * pre-flight check. The file is memory mapped, cut into chunks at line
+ * breaks and the chunks are decoded as UTF-8 and parsed on the common
+ * fork/join pool. Each chunk's rows are handed to a function on the task
+ * that parsed them and dropped once it returns, so only as many rows as
+ * there are tasks running are held at a time. Results come back in file
+ * order, with blank lines skipped as RosterReader skips them.
+ *
+ * Chunks are cut at the first line break after a fixed size without
+ * knowing whether it is inside a quoted field. A chunk whose parse ends
+ * inside quotes was cut too early; it is joined with the next chunk and
+ * parsed again, so the rows are the same as a single pass would give.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+final class MappedRoster {
+    /** Smallest chunk worth a task of its own */
+    static final int MIN_CHUNK = 1 << 20;
+    /** Largest chunk, which bounds the rows a task holds */
+    static final int MAX_CHUNK = 1 << 23;
+    /** Rows per chunk when a file too large to map is streamed instead */
+    static final int STREAMED_ROWS = 8192;
+
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    private MappedRoster() {}
+
+    /**
+     * Parse a roster file chunk by chunk, without keeping its rows.
+     * @param String Path to the csv file
+     * @param Function<List<UserData>, R> Called once per chunk with its rows,
+     *        in no particular order and possibly on several threads at once
+     * @return List<R> Result for every chunk, in file order; empty if the file does not exist
+     * @throws IOException If the file exists but cannot be read
+     */
+    static <R> List<R> readChunks(String csvPath, Function<List<UserData>, R> perChunk) throws IOException {
+        return readChunks(csvPath, 0, 4 * ForkJoinPool.commonPool().getParallelism(), perChunk);
+    }
+
+    static <R> List<R> readChunks(String csvPath, int chunkSize, int tasks,
+            Function<List<UserData>, R> perChunk) throws IOException {
+        MappedByteBuffer file;
+        try (FileChannel channel = FileChannel.open(Paths.get(csvPath), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                // One mapping holds at most 2 GB, stream anything larger
+                return readStreaming(csvPath, perChunk);
+            }
+            // The mapping stays valid after the channel is closed
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException nf) {
+            System.out.println("No file matching \""+csvPath+"\" exists.");
+            return Collections.emptyList();
+        }
+
+        // The byte order mark is dropped here, once, instead of by every chunk
+        int start = startsWith(file, UTF8_BOM) ? UTF8_BOM.length : 0;
+        int headerEnd = headerEnd(file, start);
+        CsvTokenizer header = new CsvTokenizer(decode(file, start, headerEnd));
+        if (!header.next()) {return Collections.emptyList();}
+        ColumnSchema schema = ColumnSchema.resolve(header.toArray());
+
+        int size = file.limit();
+        if (chunkSize <= 0) {
+            chunkSize = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, (size - headerEnd) / Math.max(tasks, 1) + 1));
+        }
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(headerEnd);
+        for (int at = headerEnd; at < size; ) {
+            at = lineEnd(file, (int) Math.min((long) at + chunkSize, size));
+            cuts.add(at);
+        }
+
+        List<ForkJoinTask<Chunk<R>>> parses = new ArrayList<>();
+        for (int i = 0; i + 1 < cuts.size(); i++) {
+            parses.add(ForkJoinPool.commonPool().submit(
+                new Parse<>(file, cuts.get(i), cuts.get(i + 1), schema, perChunk)));
+        }
+        List<R> results = new ArrayList<>();
+        for (int i = 0; i < parses.size(); i++) {
+            Chunk<R> chunk = parses.get(i).join();
+            // A cut inside quotes: parse again up to the next cut, whose
+            // own chunk started mid-field and is dropped
+            while (chunk.endedInQuotes && i + 1 < parses.size()) {
+                i++;
+                parses.get(i).cancel(false);
+                chunk = new Parse<>(file, chunk.from, cuts.get(i + 1), schema, perChunk).call();
+            }
+            results.add(chunk.endedInQuotes ? perChunk.apply(chunk.rows) : chunk.result);
+        }
+        return results;
+    }
+
+    private static <R> List<R> readStreaming(String csvPath, Function<List<UserData>, R> perChunk)
+            throws IOException {
+        List<R> results = new ArrayList<>();
+        List<UserData> rows = new ArrayList<>(STREAMED_ROWS);
+        try (RosterReader roster = RosterReader.open(csvPath)) {
+            while (roster.hasNext()) {
+                rows.add(roster.next());
+                if (rows.size() == STREAMED_ROWS) {
+                    results.add(perChunk.apply(rows));
+                    rows = new ArrayList<>(STREAMED_ROWS);
+                }
+            }
+        }
+        if (!rows.isEmpty()) {results.add(perChunk.apply(rows));}
+        return results;
+    }
+
+    /**
+     * Result for one chunk and whether its last field was left open.
+     * The rows are only kept for a chunk left open, which is parsed again.
+     */
+    private static final class Chunk<R> {
+        final int from;
+        final R result;
+        final List<UserData> rows;
+        final boolean endedInQuotes;
+
+        Chunk(int from, R result, List<UserData> rows, boolean endedInQuotes) {
+            this.from = from;
+            this.result = result;
+            this.rows = rows;
+            this.endedInQuotes = endedInQuotes;
+        }
+    }
+
+    private static final class Parse<R> implements Callable<Chunk<R>> {
+        private final ByteBuffer file;
+        private final int from;
+        private final int to;
+        private final ColumnSchema schema;
+        private final Function<List<UserData>, R> perChunk;
+
+        Parse(ByteBuffer file, int from, int to, ColumnSchema schema, Function<List<UserData>, R> perChunk) {
+            this.file = file;
+            this.from = from;
+            this.to = to;
+            this.schema = schema;
+            this.perChunk = perChunk;
+        }
+
+        @Override
+        public Chunk<R> call() throws IOException {
+            CsvTokenizer tokenizer = new CsvTokenizer(decode(file, from, to));
+            List<UserData> rows = new ArrayList<>();
+            while (tokenizer.next()) {
+                if (tokenizer.size() == 1 && tokenizer.get(0).isEmpty()) {continue;}
+                rows.add(schema.toUserData(tokenizer));
+            }
+            if (tokenizer.endedInQuotes()) {
+                // Usually cut too early and parsed again; the file's last
+                // chunk keeps its rows for the caller to finish
+                return new Chunk<R>(from, null, rows, true);
+            }
+            return new Chunk<R>(from, perChunk.apply(rows), null, false);
+        }
+    }
+
+    /** Decode bytes [from, to) of the file; bad UTF-8 becomes U+FFFD as with a Reader */
+    private static Reader decode(ByteBuffer file, int from, int to) {
+        ByteBuffer range = file.duplicate();
+        range.limit(to);
+        range.position(from);
+        return new Utf8Reader(range);
+    }
+
+    /**
+     * Decodes straight from the mapping into the tokenizer's buffer,
+     * instead of decoding a whole chunk into a String first.
+     */
+    private static final class Utf8Reader extends Reader {
+        private final ByteBuffer in;
+        private boolean ended = false;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        Utf8Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(char[] chars, int offset, int length) {
+            if (length == 0) {return 0;}
+            if (ended) {return -1;}
+            CharBuffer out = CharBuffer.wrap(chars, offset, length);
+            decoder.decode(in, out, true);
+            if (!in.hasRemaining()) {
+                decoder.flush(out);
+                ended = true;
+            }
+            int read = out.position() - offset;
+            return read == 0 ? -1 : read;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private static boolean startsWith(ByteBuffer file, byte[] prefix) {
+        if (file.limit() < prefix.length) {return false;}
+        for (int i = 0; i < prefix.length; i++) {
+            if (file.get(i) != prefix[i]) {return false;}
+        }
+        return true;
+    }
+
+    /** @return int Offset just past the header record, line breaks in quotes included */
+    private static int headerEnd(ByteBuffer file, int from) {
+        boolean quoted = false;
+        for (int at = from; at < file.limit(); at++) {
+            byte b = file.get(at);
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (!quoted && (b == '\n' || b == '\r')) {
+                return lineEnd(file, at);
+            }
+        }
+        return file.limit();
+    }
+
+    /**
+     * @return int Offset just past the first line break at or after from,
+     *         a CRLF counted as one; the end of the file if there is none
+     */
+    private static int lineEnd(ByteBuffer file, int from) {
+        // UTF-8 never uses these bytes inside a multi-byte character
+        for (int at = from; at < file.limit(); at++) {
+            byte b = file.get(at);
+            if (b == '\n') {return at + 1;}
+            if (b == '\r') {
+                return at + 1 < file.limit() && file.get(at + 1) == '\n' ? at + 2 : at + 1;
+            }
+        }
+        return file.limit();
+    }
+}
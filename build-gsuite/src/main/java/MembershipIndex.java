@@ -0,0 +1,141 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Group membership of the whole domain, expanded through nested groups.
+ * Every group and member address gets a small int id; groups take the
+ * ids 0 to groupCount-1, so a member id below that is a nested group.
+ * Direct members are kept as sorted int arrays, and the effective
+ * (transitive) members of each group as a BitSet computed once when the
+ * index is built, so queries are only bit tests and never API calls.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+class MembershipIndex {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final int groupCount;
+    private final int[][] direct;
+    private final BitSet[] effective;
+
+    /**
+     * @param Map<String, ? extends Collection<String>> Direct member emails of every group
+     */
+    private MembershipIndex(Map<String, ? extends Collection<String>> members) {
+        for (String group : members.keySet()) {
+            idOf(group);
+        }
+        groupCount = names.size();
+        direct = new int[groupCount][];
+        for (Map.Entry<String, ? extends Collection<String>> e : members.entrySet()) {
+            int[] ids = new int[e.getValue().size()];
+            int n = 0;
+            for (String member : e.getValue()) {
+                ids[n++] = idOf(member);
+            }
+            Arrays.sort(ids);
+            direct[idOf(e.getKey())] = ids;
+        }
+        effective = new BitSet[groupCount];
+        for (int g = 0; g < groupCount; g++) {
+            effective[g] = expand(g);
+        }
+    }
+
+    /**
+     * Build the index from the direct members of every group.
+     * Addresses are compared without regard to case.
+     * @param Map<String, ? extends Collection<String>> Direct member emails keyed by group email
+     * @return MembershipIndex Index ready for queries
+     */
+    static MembershipIndex build(Map<String, ? extends Collection<String>> members) {
+        return new MembershipIndex(members);
+    }
+
+    private int idOf(String email) {
+        String key = email.toLowerCase();
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = names.size();
+            ids.put(key, id);
+            names.add(key);
+        }
+        return id;
+    }
+
+    /** Walk nested groups depth first; visited guards against membership cycles */
+    private BitSet expand(int group) {
+        BitSet members = new BitSet();
+        BitSet visited = new BitSet(groupCount);
+        int[] stack = new int[groupCount];
+        int top = 0;
+        stack[top++] = group;
+        visited.set(group);
+        while (top > 0) {
+            for (int member : direct[stack[--top]]) {
+                members.set(member);
+                if (member < groupCount && !visited.get(member)) {
+                    visited.set(member);
+                    stack[top++] = member;
+                }
+            }
+        }
+        return members;
+    }
+
+    /** @return int Number of groups in the index */
+    int groupCount() {return groupCount;}
+
+    /**
+     * Everyone in a group directly or through nested groups.
+     * Nested groups themselves are left out, only their members are listed.
+     * @param String Group email
+     * @return List<String> Sorted member emails, null if the group is unknown
+     */
+    List<String> effectiveMembers(String group) {
+        Integer id = ids.get(group.toLowerCase());
+        if (id == null || id >= groupCount) {return null;}
+        List<String> members = new ArrayList<>();
+        BitSet set = effective[id];
+        for (int m = set.nextSetBit(groupCount); m >= 0; m = set.nextSetBit(m + 1)) {
+            members.add(names.get(m));
+        }
+        Collections.sort(members);
+        return members;
+    }
+
+    /**
+     * Every group an address is in directly or through nested groups.
+     * @param String User or group email
+     * @return List<String> Sorted group emails, empty if the address is in none
+     */
+    List<String> groupsOf(String email) {
+        Integer id = ids.get(email.toLowerCase());
+        List<String> groups = new ArrayList<>();
+        if (id == null) {return groups;}
+        for (int g = 0; g < groupCount; g++) {
+            if (g != id && effective[g].get(id)) {groups.add(names.get(g));}
+        }
+        Collections.sort(groups);
+        return groups;
+    }
+
+    /**
+     * @param String Group email
+     * @param String Member email
+     * @return boolean True if the member is listed in the group itself,
+     *         not only through a nested group
+     */
+    boolean isDirectMember(String group, String email) {
+        Integer g = ids.get(group.toLowerCase());
+        Integer m = ids.get(email.toLowerCase());
+        return g != null && m != null && g < groupCount && Arrays.binarySearch(direct[g], m) >= 0;
+    }
+}
@@ -0,0 +1,386 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Destination for the rows of a list command. Rows are arrays of string
+ * values, one per column, and go through a large buffer instead of one
+ * synchronized, flushed println each. Pick a format with --format and
+ * send it to a file with --output; the console gets CSV by default.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+abstract class OutputSink implements Closeable {
+    /** Formats --format accepts */
+    enum Format {
+        CSV, JSONL, COLUMNAR;
+
+        /**
+         * @param String Format name, any case
+         * @return Format Matching format
+         * @throws IllegalArgumentException If no format has that name
+         */
+        static Format parse(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    /** Bytes buffered before a write reaches the console or file */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    protected final String[] columns;
+    private long rows = 0;
+
+    protected OutputSink(List<String> columns) {
+        this.columns = columns.toArray(new String[columns.size()]);
+    }
+
+    /**
+     * Open a sink for the given columns.
+     * @param Format Output format
+     * @param String File to write, created or truncated; null for the console
+     * @param List<String> Column names, in the order of every row's values
+     * @return OutputSink Sink that has already written any header
+     * @throws IOException If the file cannot be opened
+     * @throws IllegalArgumentException For a binary format on the console
+     */
+    static OutputSink open(Format format, String path, List<String> columns) throws IOException {
+        if (path == null && format == Format.COLUMNAR) {
+            throw new IllegalArgumentException("The columnar format is binary, give a file with --output");
+        }
+        OutputStream out = path == null ? new ConsoleStream() : Channels.newOutputStream(FileChannel.open(
+            Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+        switch (format) {
+            case JSONL      :   return new JsonLines(columns, writer(out));
+            case COLUMNAR   :   return new Columnar(columns, new BufferedOutputStream(out, BUFFER_SIZE));
+            default         :   return new Csv(columns, writer(out));
+        }
+    }
+
+    private static Writer writer(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Write one row.
+     * @param String[] Values in column order, null for a missing value
+     * @throws IOException If the destination cannot be written
+     */
+    final void write(String[] values) throws IOException {
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException("Expected "+columns.length+" values, got "+values.length);
+        }
+        writeRow(values);
+        rows++;
+    }
+
+    protected abstract void writeRow(String[] values) throws IOException;
+
+    /** @return long Rows written so far */
+    long getRows() {return rows;}
+
+    /**
+     * The console as a stream; closing it only flushes, so System.out
+     * stays usable. Resolved per write since the daemon swaps System.out.
+     */
+    private static final class ConsoleStream extends OutputStream {
+        @Override
+        public void write(int b) {System.out.write(b);}
+        @Override
+        public void write(byte[] b, int off, int len) {System.out.write(b, off, len);}
+        @Override
+        public void flush() {System.out.flush();}
+        @Override
+        public void close() {System.out.flush();}
+    }
+
+    /** Comma separated values with RFC 4180 quoting and a header row */
+    static final class Csv extends OutputSink {
+        private final Writer out;
+
+        Csv(List<String> columns, Writer out) throws IOException {
+            super(columns);
+            this.out = out;
+            writeRow(this.columns);
+        }
+
+        @Override
+        protected void writeRow(String[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {out.write(',');}
+                quote(out, values[i]);
+            }
+            out.write('\n');
+        }
+
+        /**
+         * Write a field, quoted if it holds a comma, quote, line break or
+         * edge whitespace; quotes inside are doubled.
+         * @param Writer Destination
+         * @param String Field value, null is written as an empty field
+         */
+        static void quote(Writer out, String value) throws IOException {
+            if (value == null || value.isEmpty()) {return;}
+            boolean quote = value.charAt(0) == ' ' || value.charAt(value.length() - 1) == ' ';
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            int from = 0;
+            for (int at = value.indexOf('"'); at >= 0; at = value.indexOf('"', at + 1)) {
+                out.write(value, from, at + 1 - from);
+                out.write('"');
+                from = at + 1;
+            }
+            out.write(value, from, value.length() - from);
+            out.write('"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /** One JSON object per line, keyed by column name; missing values are null */
+    static final class JsonLines extends OutputSink {
+        private final Writer out;
+        private final String[] keys;
+
+        JsonLines(List<String> columns, Writer out) throws IOException {
+            super(columns);
+            this.out = out;
+            this.keys = new String[this.columns.length];
+            for (int i = 0; i < keys.length; i++) {
+                StringBuilder key = new StringBuilder(i == 0 ? "{" : ",");
+                appendString(key, this.columns[i]);
+                keys[i] = key.append(':').toString();
+            }
+        }
+
+        @Override
+        protected void writeRow(String[] values) throws IOException {
+            StringBuilder line = new StringBuilder(64 * values.length);
+            for (int i = 0; i < values.length; i++) {
+                line.append(keys[i]);
+                if (values[i] == null) {
+                    line.append("null");
+                } else {
+                    appendString(line, values[i]);
+                }
+            }
+            out.append(line.append("}\n"));
+        }
+
+        private static void appendString(StringBuilder out, String value) {
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"'    :   out.append("\\\"");
+                                    break;
+                    case '\\'   :   out.append("\\\\");
+                                    break;
+                    case '\n'   :   out.append("\\n");
+                                    break;
+                    case '\r'   :   out.append("\\r");
+                                    break;
+                    case '\t'   :   out.append("\\t");
+                                    break;
+                    default     :   if (c < 0x20) {
+                                        out.append(String.format("\\u%04x", (int) c));
+                                    } else {
+                                        out.append(c);
+                                    }
+                                    break;
+                }
+            }
+            out.append('"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Compact binary columns for analytics tools, in the spirit of Parquet
+     * row groups. Integers are unsigned LEB128 varints, strings are a
+     * varint byte length followed by UTF-8.
+     * <pre>
+     * "GSCOL1", column count, column names
+     * row group*: row count, then per column:
+     *     encoding byte (0 plain, 1 dictionary),
+     *     null bitmap of (rows + 7) / 8 bytes, bit set = value present,
+     *     plain: each present value;
+     *     dictionary: entry count, entries, then each present value's entry index
+     * row count 0 ends the file
+     * </pre>
+     * Columns with few distinct values (titles, departments, org units)
+     * shrink to one small index per row.
+     */
+    static final class Columnar extends OutputSink {
+        static final byte[] MAGIC = "GSCOL1".getBytes(StandardCharsets.US_ASCII);
+        /** Rows buffered per row group */
+        static final int ROW_GROUP = 8192;
+
+        private static final int PLAIN = 0;
+        private static final int DICTIONARY = 1;
+
+        private final OutputStream out;
+        private final String[][] group;
+        private int buffered = 0;
+
+        Columnar(List<String> columns, OutputStream out) throws IOException {
+            super(columns);
+            this.out = out;
+            this.group = new String[this.columns.length][ROW_GROUP];
+            out.write(MAGIC);
+            writeVarint(out, this.columns.length);
+            for (String column : this.columns) {writeString(out, column);}
+        }
+
+        @Override
+        protected void writeRow(String[] values) throws IOException {
+            for (int c = 0; c < values.length; c++) {group[c][buffered] = values[c];}
+            if (++buffered == ROW_GROUP) {flushGroup();}
+        }
+
+        private void flushGroup() throws IOException {
+            if (buffered == 0) {return;}
+            writeVarint(out, buffered);
+            for (String[] column : group) {
+                Map<String, Integer> dictionary = new HashMap<>();
+                List<String> entries = new ArrayList<>();
+                byte[] present = new byte[(buffered + 7) / 8];
+                for (int r = 0; r < buffered; r++) {
+                    String value = column[r];
+                    if (value == null) {continue;}
+                    present[r >> 3] |= 1 << (r & 7);
+                    if (!dictionary.containsKey(value)) {
+                        dictionary.put(value, entries.size());
+                        entries.add(value);
+                    }
+                }
+                boolean useDictionary = entries.size() <= buffered / 2;
+                out.write(useDictionary ? DICTIONARY : PLAIN);
+                out.write(present);
+                if (useDictionary) {
+                    writeVarint(out, entries.size());
+                    for (String entry : entries) {writeString(out, entry);}
+                }
+                for (int r = 0; r < buffered; r++) {
+                    if (column[r] == null) {continue;}
+                    if (useDictionary) {
+                        writeVarint(out, dictionary.get(column[r]));
+                    } else {
+                        writeString(out, column[r]);
+                    }
+                }
+                Arrays.fill(column, 0, buffered, null);
+            }
+            buffered = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushGroup();
+                writeVarint(out, 0);
+            } finally {
+                out.close();
+            }
+        }
+
+        /**
+         * Read a whole columnar file back into rows.
+         * @param InputStream Columnar data
+         * @return List<String[]> Column names first, then every row in order
+         * @throws IOException If the data is not in this format or is cut short
+         */
+        static List<String[]> read(InputStream in) throws IOException {
+            DataInputStream data = new DataInputStream(in);
+            byte[] magic = new byte[MAGIC.length];
+            data.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {throw new IOException("Not a columnar file");}
+            String[] names = new String[readVarint(data)];
+            for (int c = 0; c < names.length; c++) {names[c] = readString(data);}
+            List<String[]> rows = new ArrayList<>();
+            rows.add(names);
+            for (int count = readVarint(data); count > 0; count = readVarint(data)) {
+                String[][] group = new String[count][names.length];
+                for (int c = 0; c < names.length; c++) {
+                    int encoding = data.readUnsignedByte();
+                    byte[] present = new byte[(count + 7) / 8];
+                    data.readFully(present);
+                    String[] entries = null;
+                    if (encoding == DICTIONARY) {
+                        entries = new String[readVarint(data)];
+                        for (int e = 0; e < entries.length; e++) {entries[e] = readString(data);}
+                    }
+                    for (int r = 0; r < count; r++) {
+                        if ((present[r >> 3] & (1 << (r & 7))) == 0) {continue;}
+                        group[r][c] = entries == null ? readString(data) : entries[readVarint(data)];
+                    }
+                }
+                rows.addAll(Arrays.asList(group));
+            }
+            return rows;
+        }
+
+        private static void writeVarint(OutputStream out, int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        private static void writeString(OutputStream out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+
+        private static int readVarint(DataInputStream in) throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.read();
+                if (b < 0) {throw new EOFException("Columnar data ends early");}
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {return value;}
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[readVarint(in)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pipelined pagination for list calls.
+ * A background thread requests page N+1 as soon as page N's token is
+ * known and hands pages over through a small bounded queue, so the
+ * network round trip for the next page overlaps with printing this one.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ * @param <P> Type of one page of results, e.g. Users or Groups
+ */
+class Pager<P> implements Closeable {
+    /** Issues the list request for one page */
+    interface Fetch<P> {
+        P fetch(String pageToken) throws IOException;
+    }
+
+    /** Pulls the next page token out of a page, null on the last page */
+    interface NextToken<P> {
+        String of(P page);
+    }
+
+    /** Queue entry marking the end of the listing or a failed fetch */
+    private static final class End {
+        final IOException error;
+        End(IOException error) {this.error = error;}
+    }
+
+    /** Pages fetched ahead of the consumer; 2 keeps one in flight and one ready */
+    private static final int PREFETCH = 2;
+
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(PREFETCH);
+    private final Thread fetcher;
+    private boolean finished = false;
+
+    /**
+     * Starts fetching the first page right away.
+     * @param Fetch<P> Issues the list request for a page token
+     * @param NextToken<P> Reads the next page token from a page
+     */
+    Pager(final Fetch<P> fetch, final NextToken<P> nextToken) {
+        fetcher = new Thread(() -> {
+            Object last = new End(null);
+            try {
+                String token = "";
+                while (token != null) {
+                    P page = fetch.fetch(token);
+                    queue.put(page);
+                    token = nextToken.of(page);
+                }
+            } catch (IOException e) {
+                last = new End(e);
+            } catch (RuntimeException e) {
+                last = new End(new IOException(e));
+            } catch (InterruptedException e) {
+                // Consumer closed the pager early
+                return;
+            }
+            try {
+                queue.put(last);
+            } catch (InterruptedException e) {
+                // Consumer closed the pager early
+            }
+        }, "pager");
+        fetcher.setDaemon(true);
+        fetcher.start();
+    }
+
+    /**
+     * Wait for the next page.
+     * @return P Next page, or null once the listing is complete
+     * @throws IOException If fetching a page failed
+     */
+    @SuppressWarnings("unchecked")
+    P next() throws IOException {
+        if (finished) {return null;}
+        Object item;
+        try {
+            item = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the next page", e);
+        }
+        if (item instanceof End) {
+            finished = true;
+            if (((End) item).error != null) {throw ((End) item).error;}
+            return null;
+        }
+        return (P) item;
+    }
+
+    /** Stop fetching ahead, e.g. when the consumer gives up early. */
+    @Override
+    public void close() {
+        finished = true;
+        fetcher.interrupt();
+    }
+}
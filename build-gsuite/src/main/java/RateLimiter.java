@@ -0,0 +1,73 @@
+/**
+ * Token bucket used to keep bulk commands under the Directory API quota.
+ * Callers take one token per request; when the bucket is empty the caller
+ * sleeps until its reserved token has been refilled.
+ * Shared by every worker thread of a run.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+class RateLimiter {
+    /** Directory API allows 2400 queries per minute per user by default. */
+    static final double DIRECTORY_QPS = 40.0;
+
+    private final double permitsPerSecond;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param double Sustained requests per second
+     * @param double Largest burst allowed after an idle period
+     */
+    RateLimiter(double permitsPerSecond, double capacity) {
+        if (permitsPerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("Rate and capacity must be positive");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Bucket holding one second worth of tokens
+     * @param double Sustained requests per second
+     */
+    RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, Math.max(1.0, permitsPerSecond));
+    }
+
+    double getRate() {return permitsPerSecond;}
+
+    /**
+     * Take a token, blocking until one is available.
+     * Tokens may go negative so that waiting callers queue up fairly
+     * instead of all waking at once.
+     */
+    void acquire() {
+        acquire(1);
+    }
+
+    /**
+     * Take several tokens at once, e.g. one for each request in a batch.
+     * @param int Tokens to take
+     */
+    void acquire(int permits) {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * permitsPerSecond / 1e9);
+            lastRefill = now;
+            tokens -= permits;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / permitsPerSecond * 1e9);
+        }
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams rows of a roster csv as UserData, one record at a time.
+ * Only the current row is held in memory so bulk commands can start
+ * their first API call right after the header and first row are read.
+ * Records are split by CsvTokenizer, so quoted fields may contain commas,
+ * and mapped onto UserData by a ColumnSchema resolved from the header.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+class RosterReader implements Iterator<UserData>, Closeable {
+    private final Reader dataSheet;
+    private final CsvTokenizer tokenizer;
+    private final ColumnSchema schema;
+    private boolean hasRow;
+    private boolean exhausted;
+
+    /**
+     * Reads the header row once and maps each known column to its position.
+     * @param Reader Source positioned at the header row
+     * @throws IOException If the header cannot be read
+     */
+    RosterReader(Reader dataSheet) throws IOException {
+        this.dataSheet = dataSheet;
+        this.tokenizer = new CsvTokenizer(dataSheet);
+        exhausted = !tokenizer.next();
+        schema = exhausted ? null : ColumnSchema.resolve(tokenizer.toArray());
+    }
+
+    /**
+     * Open a roster file for streaming. The file is read as UTF-8
+     * whatever the platform's default charset is.
+     * @param String absolute path to csv file.
+     * @return RosterReader Reader over the file, empty if it does not exist
+     * @throws IOException If the file exists but cannot be read
+     */
+    static RosterReader open(String csvPath) throws IOException {
+        try {
+            return new RosterReader(new InputStreamReader(new FileInputStream(csvPath), StandardCharsets.UTF_8));
+        } catch (FileNotFoundException nf) {
+            System.out.println("No file matching \""+csvPath+"\" exists.");
+            return new RosterReader(new StringReader(""));
+        }
+    }
+
+    /**
+     * Reads ahead one record if needed. Blank lines are skipped.
+     * @throws UncheckedIOException If the file cannot be read mid-stream
+     */
+    @Override
+    public boolean hasNext() {
+        try {
+            while (!hasRow && !exhausted) {
+                exhausted = !tokenizer.next();
+                hasRow = !exhausted && !(tokenizer.size() == 1 && tokenizer.get(0).isEmpty());
+            }
+        } catch (IOException io) {
+            throw new UncheckedIOException(io);
+        }
+        return hasRow;
+    }
+
+    /** @return UserData The next row of the file */
+    @Override
+    public UserData next() {
+        if (!hasNext()) {throw new NoSuchElementException();}
+        UserData user = schema.toUserData(tokenizer);
+        hasRow = false;
+        return user;
+    }
+
+    @Override
+    public void close() throws IOException {
+        dataSheet.close();
+    }
+}
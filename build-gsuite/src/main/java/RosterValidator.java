@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Pre-flight check of a whole roster before a bulk command sends
+ * anything, so every bad row is reported at once instead of being found
+ * one rejected request at a time. Rows are checked for required values,
+ * email syntax, the password policy, emails repeated within the file and
+ * group names. A file is read and checked in chunks on the common
+ * fork/join pool, and only the first row of each email is kept from one
+ * chunk to the next, so a roster of any size is checked in bounded memory.
+ *
+ * Rows are numbered like RunJournal numbers them: the first record after
+ * the header is row 1.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+final class RosterValidator {
+    /** Google's limits on a new user's password */
+    static final int MIN_PASSWORD = 8;
+    static final int MAX_PASSWORD = 100;
+
+    /** Dot-atom address: what the Directory API accepts for users and groups */
+    private static final Pattern EMAIL = Pattern.compile(
+        "[A-Za-z0-9!#$%&'*+/=?^_`{|}~-]+(\\.[A-Za-z0-9!#$%&'*+/=?^_`{|}~-]+)*"
+        + "@[A-Za-z0-9]([A-Za-z0-9-]*[A-Za-z0-9])?(\\.[A-Za-z0-9]([A-Za-z0-9-]*[A-Za-z0-9])?)+");
+
+    /** One problem with one row, or with the file when row is 0 */
+    static final class Problem implements Comparable<Problem> {
+        final int row;
+        final String message;
+
+        Problem(int row, String message) {
+            this.row = row;
+            this.message = message;
+        }
+
+        @Override
+        public int compareTo(Problem other) {
+            return Integer.compare(row, other.row);
+        }
+
+        @Override
+        public String toString() {
+            return row == 0 ? message : "Row "+row+": "+message;
+        }
+    }
+
+    private final boolean[] requiredValue = new boolean[UserData.getColumns().length];
+    private final boolean[] requiredColumn = new boolean[UserData.getColumns().length];
+    private boolean checkPassword = false;
+    private boolean unique = false;
+    private boolean checkGroups = false;
+    private Set<String> knownGroups = null;
+    private int rows = 0;
+
+    /**
+     * Checks needed by the bulk commands a run will do.
+     * @param RunConfig Options naming the commands
+     * @return RosterValidator Validator, or null if no command reads a roster
+     */
+    static RosterValidator forRun(RunConfig config) {
+        boolean create = config.createUsers || config.onboard;
+        boolean members = config.addMembers || config.syncGroups || config.onboard;
+        if (!create && !members && !config.update) {return null;}
+        RosterValidator v = new RosterValidator();
+        v.requireValue(UserData.EMAIL);
+        if (create) {
+            v.requireValue(UserData.FIRST_NAME);
+            v.requireValue(UserData.LAST_NAME);
+            v.requireValue(UserData.PASSWORD);
+            v.checkPassword = true;
+        }
+        if (config.addMembers || config.syncGroups) {
+            // Blank groups are fine, a missing column is not
+            v.requireColumn(UserData.GROUPS);
+        }
+        // One user per row; membership commands may list a user twice
+        v.unique = create || config.update;
+        v.checkGroups = members;
+        return v;
+    }
+
+    private void requireValue(int slot) {
+        requiredValue[slot] = true;
+        requiredColumn[slot] = true;
+    }
+
+    private void requireColumn(int slot) {
+        requiredColumn[slot] = true;
+    }
+
+    /** @return boolean True if the rows' group names get checked */
+    boolean checksGroups() {return checkGroups;}
+
+    /**
+     * Also report groups missing from the directory.
+     * @param Set<String> Lower case emails of every group in the domain
+     */
+    void knownGroups(Set<String> groups) {
+        this.knownGroups = groups;
+    }
+
+    /**
+     * Check every row of a roster file. Rows are parsed and checked a
+     * chunk at a time and not kept; only the first row of each email is.
+     * @param String Path to the csv file
+     * @return List<Problem> Every problem found, by row, empty if none
+     * @throws IOException If the file exists but cannot be read
+     */
+    List<Problem> validate(String csvPath) throws IOException {
+        return merge(MappedRoster.readChunks(csvPath, this::check));
+    }
+
+    /** @return int Rows the last validate call checked */
+    int getRows() {return rows;}
+
+    /** Number the chunks' rows through the file and find emails repeated across them */
+    private List<Problem> merge(List<Chunk> chunks) {
+        List<Problem> problems = new ArrayList<>();
+        List<Found> found = new ArrayList<>();
+        Map<String, Integer> firstRow = new HashMap<>();
+        int[] absent = new int[UserData.getColumns().length];
+        int offset = 0;
+        for (Chunk chunk : chunks) {
+            for (Found f : chunk.problems) {
+                found.add(new Found(f.slot, new Problem(offset + f.problem.row, f.problem.message)));
+            }
+            for (Map.Entry<String, Integer> e : chunk.firstRow.entrySet()) {
+                Integer first = firstRow.putIfAbsent(e.getKey(), offset + e.getValue());
+                if (first != null) {found.add(repeated(offset + e.getValue(), e.getKey(), first));}
+            }
+            for (Map.Entry<Integer, String> e : chunk.repeats.entrySet()) {
+                found.add(repeated(offset + e.getKey(), e.getValue(), firstRow.get(e.getValue())));
+            }
+            for (int slot = 0; slot < absent.length; slot++) {absent[slot] += chunk.absent[slot];}
+            offset += chunk.rows;
+        }
+        rows = offset;
+
+        String[] columns = UserData.getColumns();
+        for (int slot = 0; slot < columns.length; slot++) {
+            if (requiredColumn[slot] && rows > 0 && absent[slot] == rows) {
+                problems.add(new Problem(0, "Column "+columns[slot]+" is missing from the file"));
+            }
+        }
+        for (Found f : found) {
+            // Reported once above rather than on every row
+            if (f.slot >= 0 && absent[f.slot] == rows) {continue;}
+            problems.add(f.problem);
+        }
+        Collections.sort(problems);
+        return problems;
+    }
+
+    private static Found repeated(int row, String email, int first) {
+        return new Found(-1, new Problem(row, email+" is already on row "+first));
+    }
+
+    /**
+     * Problems of a run of rows, numbered from 1 within the run, and the
+     * first row of every email in it
+     */
+    private static final class Chunk {
+        final List<Found> problems = new ArrayList<>();
+        final Map<String, Integer> firstRow = new HashMap<>();
+        /** Later rows of an email already in firstRow */
+        final Map<Integer, String> repeats = new HashMap<>();
+        final int[] absent = new int[UserData.getColumns().length];
+        int rows = 0;
+    }
+
+    /** A problem and the column it is about, -1 for none */
+    private static final class Found {
+        final int slot;
+        final Problem problem;
+
+        Found(int slot, Problem problem) {
+            this.slot = slot;
+            this.problem = problem;
+        }
+    }
+
+    /**
+     * Check one run of rows. Safe to call for several runs at once.
+     * @param List<UserData> Consecutive rows of the file
+     * @return Chunk Problems of the run
+     */
+    private Chunk check(List<UserData> rows) {
+        Chunk chunk = new Chunk();
+        for (UserData data : rows) {check(++chunk.rows, data, chunk);}
+        return chunk;
+    }
+
+    private void check(int row, UserData data, Chunk chunk) {
+        String[] columns = UserData.getColumns();
+        for (int slot = 0; slot < columns.length; slot++) {
+            String value = data.get(slot);
+            if (value == null) {chunk.absent[slot]++;}
+            if (requiredValue[slot] && (value == null || value.trim().isEmpty())) {
+                chunk.problems.add(new Found(slot, new Problem(row, "Missing "+columns[slot])));
+            }
+        }
+
+        String email = data.getEmail();
+        if (email != null && !email.trim().isEmpty()) {
+            if (!EMAIL.matcher(email).matches()) {
+                chunk.problems.add(new Found(-1, new Problem(row, "\""+email+"\" is not a valid email address")));
+            } else if (unique && chunk.firstRow.putIfAbsent(email.toLowerCase(Locale.ROOT), row) != null) {
+                chunk.repeats.put(row, email.toLowerCase(Locale.ROOT));
+            }
+        }
+
+        String password = data.getPassword();
+        if (checkPassword && password != null && !password.trim().isEmpty()) {
+            String policy = passwordProblem(password);
+            if (policy != null) {chunk.problems.add(new Found(-1, new Problem(row, policy)));}
+        }
+
+        if (checkGroups && data.getGroups() != null) {
+            for (String group : data.getGroups().split(" ")) {
+                if (group.isEmpty()) {continue;}
+                if (!EMAIL.matcher(group).matches()) {
+                    chunk.problems.add(new Found(-1, new Problem(row, "\""+group+"\" is not a valid group email")));
+                } else if (knownGroups != null && !knownGroups.contains(group.toLowerCase(Locale.ROOT))) {
+                    chunk.problems.add(new Found(-1, new Problem(row, "No group "+group+" in the domain")));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param String Password of a new user
+     * @return String What is wrong with it, null if the API will accept it
+     */
+    static String passwordProblem(String password) {
+        if (password.length() < MIN_PASSWORD) {
+            return "Password shorter than "+MIN_PASSWORD+" characters";
+        }
+        if (password.length() > MAX_PASSWORD) {
+            return "Password longer than "+MAX_PASSWORD+" characters";
+        }
+        if (password.charAt(0) == ' ' || password.charAt(password.length() - 1) == ' ') {
+            return "Password starts or ends with a space";
+        }
+        for (int i = 0; i < password.length(); i++) {
+            char c = password.charAt(i);
+            if (c < 0x20 || c > 0x7E) {return "Password has characters other than printable ASCII";}
+        }
+        return null;
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Options of one run of the tool, fixed once the flags are parsed.
+ * Every field is final, so a configuration can be handed to any number
+ * of jobs and worker threads without copying or locking.
+ * Use RunConfig.builder() to make one; unset options keep the defaults
+ * of the command line.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+final class RunConfig {
+    final boolean dryRun;
+    final boolean verbose;
+    final boolean listUsers;
+    final boolean listGroups;
+    final boolean addMembers;
+    final boolean syncGroups;
+    final boolean batch;
+    final boolean createUsers;
+    final boolean example;
+    final boolean update;
+    final boolean testing;
+    final boolean debug;
+    final boolean refresh;
+    final boolean resume;
+    final boolean daemon;
+    final boolean stopDaemon;
+    final boolean virtualThreads;
+    final boolean onboard;
+    final boolean noValidate;
+    final String path;
+    final String whoIsIn;
+    final String groupsOf;
+    final String rootUrl;
+    final String output;
+    final String metrics;
+    final OutputSink.Format format;
+    final int parallelism;
+    final double rate;
+    final double cacheTtl;
+    final List<UserColumn> columns;
+
+    private RunConfig(Builder b) {
+        this.dryRun = b.dryRun;
+        this.verbose = b.verbose;
+        this.listUsers = b.listUsers;
+        this.listGroups = b.listGroups;
+        this.addMembers = b.addMembers;
+        this.syncGroups = b.syncGroups;
+        this.batch = b.batch;
+        this.createUsers = b.createUsers;
+        this.example = b.example;
+        this.update = b.update;
+        this.testing = b.testing;
+        this.debug = b.debug;
+        this.refresh = b.refresh;
+        this.resume = b.resume;
+        this.daemon = b.daemon;
+        this.stopDaemon = b.stopDaemon;
+        this.virtualThreads = b.virtualThreads;
+        this.onboard = b.onboard;
+        this.noValidate = b.noValidate;
+        this.path = b.path;
+        this.whoIsIn = b.whoIsIn;
+        this.groupsOf = b.groupsOf;
+        this.rootUrl = b.rootUrl;
+        this.output = b.output;
+        this.metrics = b.metrics;
+        this.format = b.format;
+        this.parallelism = b.parallelism;
+        this.rate = b.rate;
+        this.cacheTtl = b.cacheTtl;
+        this.columns = Collections.unmodifiableList(new ArrayList<>(b.columns));
+    }
+
+    /** @return Builder Builder holding the command line defaults */
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Same options with a relative --path, --output or --metrics taken from another directory,
+     * for commands forwarded from a shell that is not where the daemon runs.
+     * @param File Directory of the caller
+     * @return RunConfig Options with absolute paths
+     */
+    RunConfig resolvePaths(File workingDir) {
+        Builder resolved = new Builder(this);
+        if (!path.isEmpty() && !new File(path).isAbsolute()) {
+            resolved.path(new File(workingDir, path).getPath());
+        }
+        if (output != null && !new File(output).isAbsolute()) {
+            resolved.output(new File(workingDir, output).getPath());
+        }
+        if (metrics != null && !new File(metrics).isAbsolute()) {
+            resolved.metrics(new File(workingDir, metrics).getPath());
+        }
+        return resolved.build();
+    }
+
+    /** @return boolean True if --who-is-in or --groups-of was given */
+    boolean membershipQuery() {
+        return whoIsIn != null || groupsOf != null;
+    }
+
+    /** @return boolean True if any command needs the Directory API */
+    boolean needsService() {
+        return testing || createUsers || onboard || addMembers || syncGroups || update
+            || listGroups || listUsers || membershipQuery();
+    }
+
+    /** @return boolean True if list commands should go through the local snapshot */
+    boolean useCache() {
+        return cacheTtl > 0 || refresh;
+    }
+
+    /**
+     * Collects options while flags are parsed. Not thread-safe;
+     * build() a RunConfig before sharing it.
+     */
+    static final class Builder {
+        private boolean dryRun = false;
+        private boolean verbose = false;
+        private boolean listUsers = false;
+        private boolean listGroups = false;
+        private boolean addMembers = false;
+        private boolean syncGroups = false;
+        private boolean batch = false;
+        private boolean createUsers = false;
+        private boolean example = false;
+        private boolean update = false;
+        private boolean testing = false;
+        private boolean debug = false;
+        private boolean refresh = false;
+        private boolean resume = false;
+        private boolean daemon = false;
+        private boolean stopDaemon = false;
+        private boolean virtualThreads = false;
+        private boolean onboard = false;
+        private boolean noValidate = false;
+        private String path = "";
+        private String whoIsIn = null;
+        private String groupsOf = null;
+        private String rootUrl = null;
+        private String output = null;
+        private String metrics = null;
+        private OutputSink.Format format = OutputSink.Format.CSV;
+        private int parallelism = 1;
+        private double rate = RateLimiter.DIRECTORY_QPS;
+        private double cacheTtl = 0;
+        private List<UserColumn> columns = UserColumn.parse(UserColumn.DEFAULT);
+
+        private Builder() {}
+
+        private Builder(RunConfig from) {
+            dryRun = from.dryRun;
+            verbose = from.verbose;
+            listUsers = from.listUsers;
+            listGroups = from.listGroups;
+            addMembers = from.addMembers;
+            syncGroups = from.syncGroups;
+            batch = from.batch;
+            createUsers = from.createUsers;
+            example = from.example;
+            update = from.update;
+            testing = from.testing;
+            debug = from.debug;
+            refresh = from.refresh;
+            resume = from.resume;
+            daemon = from.daemon;
+            stopDaemon = from.stopDaemon;
+            virtualThreads = from.virtualThreads;
+            onboard = from.onboard;
+            noValidate = from.noValidate;
+            path = from.path;
+            whoIsIn = from.whoIsIn;
+            groupsOf = from.groupsOf;
+            rootUrl = from.rootUrl;
+            output = from.output;
+            metrics = from.metrics;
+            format = from.format;
+            parallelism = from.parallelism;
+            rate = from.rate;
+            cacheTtl = from.cacheTtl;
+            columns = from.columns;
+        }
+
+        Builder dryRun(boolean on)      {dryRun = on; return this;}
+        Builder verbose(boolean on)     {verbose = on; return this;}
+        Builder listUsers(boolean on)   {listUsers = on; return this;}
+        Builder listGroups(boolean on)  {listGroups = on; return this;}
+        Builder addMembers(boolean on)  {addMembers = on; return this;}
+        Builder syncGroups(boolean on)  {syncGroups = on; return this;}
+        Builder batch(boolean on)       {batch = on; return this;}
+        Builder createUsers(boolean on) {createUsers = on; return this;}
+        Builder example(boolean on)     {example = on; return this;}
+        Builder update(boolean on)      {update = on; return this;}
+        Builder testing(boolean on)     {testing = on; return this;}
+        Builder debug(boolean on)       {debug = on; return this;}
+        Builder refresh(boolean on)     {refresh = on; return this;}
+        Builder resume(boolean on)      {resume = on; return this;}
+        Builder daemon(boolean on)      {daemon = on; return this;}
+        Builder stopDaemon(boolean on)  {stopDaemon = on; return this;}
+        Builder virtualThreads(boolean on) {virtualThreads = on; return this;}
+        Builder onboard(boolean on)     {onboard = on; return this;}
+        Builder noValidate(boolean on)  {noValidate = on; return this;}
+        Builder path(String value)      {path = value; return this;}
+        Builder whoIsIn(String value)   {whoIsIn = value; return this;}
+        Builder groupsOf(String value)  {groupsOf = value; return this;}
+        Builder rootUrl(String value)   {rootUrl = value; return this;}
+        Builder output(String value)    {output = value; return this;}
+        Builder metrics(String value)   {metrics = value; return this;}
+        Builder format(OutputSink.Format value) {format = value; return this;}
+        Builder cacheTtl(double value)  {cacheTtl = value; return this;}
+
+        Builder parallelism(int value) {
+            if (value < 1) {throw new IllegalArgumentException("Parallelism must be at least 1");}
+            parallelism = value;
+            return this;
+        }
+
+        Builder rate(double value) {
+            if (value <= 0) {throw new IllegalArgumentException("Rate must be positive");}
+            rate = value;
+            return this;
+        }
+
+        Builder columns(List<UserColumn> value) {
+            if (value == null || value.isEmpty()) {throw new IllegalArgumentException("No columns given");}
+            columns = value;
+            return this;
+        }
+
+        /** @return RunConfig Immutable snapshot of the options set so far */
+        RunConfig build() {
+            return new RunConfig(this);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Append-only record of which roster rows a bulk command already finished,
+ * so a run that died part way through can be resumed with --resume.
+ * Each line is "row TAB email TAB item TAB OK|FAIL", where item is the
+ * group for --add and empty for --create. Lines are buffered and synced
+ * to disk in groups, when enough records have piled up or the first
+ * record arrives after the sync interval has passed, and on close. A
+ * crash loses at most the last unsynced group, and those rows are simply
+ * sent again on resume.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+class RunJournal implements Closeable {
+    /** Records buffered before the journal is synced to disk */
+    private static final int SYNC_EVERY = 256;
+    /**
+     * Age of the last sync after which the next record syncs the buffer.
+     * Only checked when a record is written, so a stalled run can leave
+     * rows unsynced for longer.
+     */
+    private static final long SYNC_INTERVAL_MILLIS = 1000;
+
+    private static final String OK = "OK";
+    private static final String FAIL = "FAIL";
+
+    private final File file;
+    private final Set<String> done;
+    private final FileOutputStream out;
+    private final Writer writer;
+    private int unsynced = 0;
+    private long lastSync = System.currentTimeMillis();
+    private int skipped = 0;
+
+    private RunJournal(File file, Set<String> done, FileOutputStream out) {
+        this.file = file;
+        this.done = done;
+        this.out = out;
+        this.writer = out == null ? null
+            : new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * Open the journal for a run.
+     * @param File Journal file, usually next to the roster
+     * @param boolean Keep the existing journal and skip the rows it lists as done,
+     *                otherwise start a new journal
+     * @return RunJournal Journal ready for records
+     * @throws IOException If the journal cannot be read or created
+     */
+    static RunJournal open(File file, boolean resume) throws IOException {
+        Set<String> done = resume ? read(file) : new HashSet<String>();
+        if (resume) {
+            System.out.printf("Resuming from %s: %d rows already done%n", file, done.size());
+        }
+        FileOutputStream out = new FileOutputStream(file, resume);
+        if (resume && !endsWithLine(file)) {
+            // Finish a torn last line so the next record is not glued onto it
+            out.write('\n');
+        }
+        return new RunJournal(file, done, out);
+    }
+
+    /** @return boolean Whether the file is empty or its last line is complete */
+    private static boolean endsWithLine(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() == 0) {return true;}
+            in.seek(in.length() - 1);
+            return in.read() == '\n';
+        }
+    }
+
+    /** @return RunJournal Journal that records nothing, for runs that cannot be resumed */
+    static RunJournal disabled() {
+        return new RunJournal(null, new HashSet<String>(), null);
+    }
+
+    /**
+     * Journal file kept for a roster and command, e.g. roster.csv.create.journal
+     * @param String Path of the roster
+     * @param String Command name
+     * @return File Journal location
+     */
+    static File forRoster(String csvPath, String command) {
+        return new File(csvPath+"."+command+".journal");
+    }
+
+    private static Set<String> read(File file) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!file.isFile()) {return done;}
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int status = line.lastIndexOf('\t');
+                // A torn last line from a crash has no status, ignore it
+                if (status > 0 && OK.equals(line.substring(status + 1))) {
+                    done.add(line.substring(0, status));
+                }
+            }
+        }
+        return done;
+    }
+
+    private static String key(int row, String email, String item) {
+        return row+"\t"+email+"\t"+(item == null ? "" : item);
+    }
+
+    /**
+     * Whether an earlier run finished this row. Rows are matched on number
+     * and email, so an edited roster does not skip the wrong users.
+     * Counts the row as skipped when it was done.
+     * @param int Record number in the roster, header excluded
+     * @param String Email of the row
+     * @param String Group for --add, null for --create
+     * @return boolean True if the row should be skipped
+     */
+    synchronized boolean isDone(int row, String email, String item) {
+        if (done.contains(key(row, email, item))) {
+            skipped++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record the outcome of a row. Safe to call from several workers.
+     * @param int Record number in the roster, header excluded
+     * @param String Email of the row
+     * @param String Group for --add, null for --create
+     * @param boolean Whether the row is finished and should not be sent again
+     * @throws IOException If the journal cannot be written
+     */
+    synchronized void record(int row, String email, String item, boolean ok) throws IOException {
+        if (writer == null) {return;}
+        writer.write(key(row, email, item)+"\t"+(ok ? OK : FAIL)+"\n");
+        unsynced++;
+        if (unsynced >= SYNC_EVERY || System.currentTimeMillis() - lastSync >= SYNC_INTERVAL_MILLIS) {
+            sync();
+        }
+    }
+
+    private void sync() throws IOException {
+        writer.flush();
+        FileChannel channel = out.getChannel();
+        channel.force(false);
+        unsynced = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    /** @return int Rows skipped because an earlier run finished them */
+    synchronized int getSkipped() {return skipped;}
+
+    /** Sync outstanding records and close the file. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer == null) {return;}
+        try {
+            sync();
+        } finally {
+            writer.close();
+        }
+        if (skipped > 0) {
+            System.out.printf("Skipped %d rows finished by an earlier run (%s)%n", skipped, file);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import com.google.api.services.admin.directory.model.User;
+import com.google.api.services.admin.directory.model.UserName;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Columns --list-users can print. Each column knows which part of the
+ * User resource it reads, so the tool can ask the API for only those
+ * fields (partial response) instead of the full projection.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+enum UserColumn {
+    FIRSTNAME("firstName", "name", "givenName") {
+        String valueOf(User user, Map<String, Object> org) {
+            UserName name = user.getName();
+            return name == null ? null : name.getGivenName();
+        }
+    },
+    LASTNAME("lastName", "name", "familyName") {
+        String valueOf(User user, Map<String, Object> org) {
+            UserName name = user.getName();
+            return name == null ? null : name.getFamilyName();
+        }
+    },
+    EMAIL("email", null, "primaryEmail") {
+        String valueOf(User user, Map<String, Object> org) {
+            return user.getPrimaryEmail();
+        }
+    },
+    TITLE("title", "organizations", "title") {
+        String valueOf(User user, Map<String, Object> org) {
+            return org == null ? null : (String) org.get("title");
+        }
+    },
+    DEPT("dept", "organizations", "department") {
+        String valueOf(User user, Map<String, Object> org) {
+            return org == null ? null : (String) org.get("department");
+        }
+    },
+    ORGUNIT("orgUnit", null, "orgUnitPath") {
+        String valueOf(User user, Map<String, Object> org) {
+            return user.getOrgUnitPath();
+        }
+    },
+    SUSPENDED("suspended", null, "suspended") {
+        String valueOf(User user, Map<String, Object> org) {
+            return user.getSuspended() == null ? null : user.getSuspended().toString();
+        }
+    };
+
+    /** Columns printed when --columns is not given */
+    static final String DEFAULT = "firstName,lastName,email,title";
+
+    private final String header;
+    private final String parent;
+    private final String field;
+
+    private UserColumn(String header, String parent, String field) {
+        this.header = header;
+        this.parent = parent;
+        this.field = field;
+    }
+
+    /**
+     * Value of this column for a user
+     * @param User Directory user
+     * @param Map<String, Object> User's first organization, may be null
+     * @return String Value to print, null if the user has none
+     */
+    abstract String valueOf(User user, Map<String, Object> org);
+
+    String getHeader() {return header;}
+
+    /**
+     * @param String Comma separated column names, e.g. "email,title"
+     * @return List<UserColumn> Columns in the order given
+     * @throws IllegalArgumentException If a name is not a known column
+     */
+    static List<UserColumn> parse(String spec) {
+        List<UserColumn> columns = new ArrayList<>();
+        for (String name : spec.split(",")) {
+            UserColumn match = null;
+            for (UserColumn c : values()) {
+                if (c.header.equals(name.trim())) {match = c;}
+            }
+            if (match == null) {
+                throw new IllegalArgumentException("Unknown column '"+name+"'. Available: "+available());
+            }
+            columns.add(match);
+        }
+        return columns;
+    }
+
+    /** @return String Every column name, comma separated */
+    static String available() {
+        StringBuilder names = new StringBuilder();
+        for (UserColumn c : values()) {
+            if (names.length() > 0) {names.append(",");}
+            names.append(c.header);
+        }
+        return names.toString();
+    }
+
+    /**
+     * Minimal partial response selector for users.list, e.g.
+     * nextPageToken,etag,users(primaryEmail,name(givenName,familyName))
+     * @param List<UserColumn> Columns that will be printed
+     * @return String Value for the fields parameter
+     */
+    static String listMask(List<UserColumn> columns) {
+        return "nextPageToken,etag,users("+userMask(columns)+")";
+    }
+
+    /**
+     * Selector for a single User resource, as used by users.get
+     * @param List<UserColumn> Columns that will be read
+     * @return String Value for the fields parameter
+     */
+    static String userMask(List<UserColumn> columns) {
+        // Group sub fields under their parent, keeping first-seen order
+        Map<String, Set<String>> grouped = new LinkedHashMap<>();
+        for (UserColumn c : columns) {
+            String key = c.parent == null ? c.field : c.parent;
+            if (!grouped.containsKey(key)) {grouped.put(key, new LinkedHashSet<String>());}
+            if (c.parent != null) {grouped.get(key).add(c.field);}
+        }
+        StringBuilder mask = new StringBuilder();
+        for (Map.Entry<String, Set<String>> e : grouped.entrySet()) {
+            if (mask.length() > 0) {mask.append(",");}
+            mask.append(e.getKey());
+            if (!e.getValue().isEmpty()) {
+                mask.append("(").append(String.join(",", e.getValue())).append(")");
+            }
+        }
+        return mask.toString();
+    }
+}
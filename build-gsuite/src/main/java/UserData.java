@@ -0,0 +1,98 @@
+import com.google.api.client.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Simple object for accessing information on each user
+ * Using this structure for consistent naming and iteration
+ * Known columns live in a fixed array indexed by column ordinal,
+ * any other columns of the file are kept in a small overflow map.
+ */
+class UserData {
+    // Column headers
+    // When column headers change, only need to update these names
+    private static final String fName   = "firstName";
+    private static final String lName   = "lastName";
+    private static final String email   = "email"; // Company email address
+    private static final String pw      = "password";
+    private static final String title   = "jobtitle";
+    private static final String phone   = "phone";
+    private static final String dept    = "dept";
+    private static final String groups  = "groups";
+    // Should contain everything declared above
+    private static final String[] columns  = {fName,lName,email,pw,title,phone,dept,groups};
+    // Ordinal of each column in the array above, used as slot numbers
+    static final int FIRST_NAME = 0;
+    static final int LAST_NAME  = 1;
+    static final int EMAIL      = 2;
+    static final int PASSWORD   = 3;
+    static final int TITLE      = 4;
+    static final int PHONE      = 5;
+    static final int DEPT       = 6;
+    static final int GROUPS     = 7;
+
+    private final String[] data = new String[columns.length];
+    // Columns outside the known set, only allocated when a file has them
+    private Map<String, String> extra;
+
+    public UserData() {}
+    // Since data not altered elsewhere it's unnecessary to write specific set methods.
+    public void set(String key, String value) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            data[slot] = value;
+        } else {
+            setExtra(key, value);
+        }
+    }
+    public void set(int slot, String value) {data[slot] = value;}
+    public String get(int slot) {return data[slot];}
+    public void setExtra(String key, String value) {
+        if (extra == null) {extra = new LinkedHashMap<>();}
+        extra.put(key, value);
+    }
+    // BUT specific methods abstracts the datastructure away for multiple get() uses.
+    // This reduces errors and time spent looking for the key name.
+    public String getFirstName() {return data[FIRST_NAME];}
+    public String getLastName() {return data[LAST_NAME];}
+    public String getEmail() {return data[EMAIL];}
+    public String getPassword() {return data[PASSWORD];}
+    public String getTitle() {return data[TITLE];}
+    public String getPhone() {return data[PHONE];}
+    public String getDept() {return data[DEPT];}
+    public String getGroups() {return data[GROUPS];}
+    public String getExtra(String key) {return extra == null ? null : extra.get(key);}
+    public Map<String, String> getExtras() {
+        return extra == null ? Collections.<String, String>emptyMap() : extra;
+    }
+    public static String[] getColumns() {return columns;}
+    /**
+     * @param String Column header name
+     * @return int Slot of a known column, -1 for anything else
+     */
+    public static int slotOf(String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column)) {return i;}
+        }
+        return -1;
+    }
+    // Less necessary but worthy method to simplify update method.
+    public ArrayList<ArrayMap<String, Object>> getOrganizations() {
+        if (getTitle() == null && getDept() == null) {
+            // Not all users need additional fields, leave blank if this is the case.
+            return null;
+        }
+        // Note that this ArrayMap ignores null values
+        ArrayList<ArrayMap<String, Object>> fieldsWrapper = new ArrayList<>();
+        ArrayMap<String, Object> fields = new ArrayMap<>();
+        fields.put("title", getTitle());
+        fields.put("department", getDept());
+        fields.put("primary", new Boolean(true));
+        fields.put("customType", "");
+        fieldsWrapper.add(fields);
+        return fieldsWrapper;
+    }
+}
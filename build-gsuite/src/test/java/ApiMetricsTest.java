@@ -0,0 +1,93 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.services.admin.directory.Directory;
+import com.google.api.services.admin.directory.model.User;
+import com.google.api.services.admin.directory.model.UserName;
+
+import java.io.IOException;
+
+/**
+ * The test class for the ApiMetrics class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class ApiMetricsTest {
+    @Test
+    public void testBucketsKeepThreePercent() {
+        for (long micros : new long[] {0, 1, 63, 64, 65, 127, 128, 999, 12345, 1000000, 123456789}) {
+            long max = ApiMetrics.bucketMax(ApiMetrics.bucket(micros));
+            assertTrue(micros+" in bucket up to "+max, max >= micros);
+            assertTrue(micros+" in bucket up to "+max, max - micros <= micros / 32);
+            assertEquals(ApiMetrics.bucket(micros), ApiMetrics.bucket(max));
+        }
+        assertEquals(ApiMetrics.BUCKETS - 1, ApiMetrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testOperationNames() {
+        String root = "https://www.googleapis.com/admin/directory/v1/";
+        assertEquals("POST users", ApiMetrics.operation("POST", new GenericUrl(root+"users")));
+        assertEquals("PATCH users/{}", ApiMetrics.operation("PATCH", new GenericUrl(root+"users/ann@example.com")));
+        assertEquals("GET groups/{}/members",
+            ApiMetrics.operation("GET", new GenericUrl(root+"groups/staff@example.com/members?pageToken=x")));
+        assertEquals("DELETE groups/{}/members/{}",
+            ApiMetrics.operation("DELETE", new GenericUrl(root+"groups/staff@example.com/members/ann@example.com")));
+        assertEquals("POST /batch/admin/directory_v1",
+            ApiMetrics.operation("POST", new GenericUrl("https://www.googleapis.com/batch/admin/directory_v1")));
+    }
+
+    @Test
+    public void testCallsRecordedByOperation() throws IOException {
+        try (FakeDirectory fake = new FakeDirectory();
+                DirectoryClient client = DirectoryClient.local(fake.rootUrl())) {
+            Directory service = client.directory();
+            ApiMetrics.Snapshot before = client.metrics().snapshot();
+            fake.errorRate(0.3);
+            ApiRetry retry = new ApiRetry(new RateLimiter(1000), 1, 1);
+            for (int i = 0; i < 20; i++) {
+                User user = new User().setPrimaryEmail("user"+i+"@example.com").setPassword("changeme"+i)
+                    .setName(new UserName().setGivenName("First").setFamilyName("Last"));
+                retry.execute(() -> service.users().insert(user).execute());
+            }
+            fake.errorRate(0);
+            try {
+                service.users().get("nobody@example.com").execute();
+                fail("Missing user should not be found");
+            } catch (GoogleJsonResponseException e) {
+                assertEquals(404, e.getStatusCode());
+            }
+
+            ApiMetrics.Snapshot used = client.metrics().snapshot().minus(before);
+            ApiMetrics.Stats inserts = used.get("POST users");
+            assertEquals(fake.calls() - 1, inserts.count);
+            assertEquals(Long.valueOf(20), inserts.statuses.get(200));
+            assertEquals(Long.valueOf(fake.injectedErrors()),
+                inserts.statuses.containsKey(503) ? inserts.statuses.get(503) : Long.valueOf(0));
+            assertEquals(retry.getRetries(), inserts.retries);
+            assertTrue(inserts.requestBytes > 20 * "user0@example.com".length());
+            assertTrue(inserts.responseBytes > 0);
+            assertTrue(inserts.percentileMillis(0.5) <= inserts.maxMillis());
+            assertEquals(inserts.count, inserts.countWithin(3600));
+
+            ApiMetrics.Stats gets = used.get("GET users/{}");
+            assertEquals(1, gets.count);
+            assertEquals(0, gets.retries);
+            assertEquals(Long.valueOf(1), gets.statuses.get(404));
+
+            // A later snapshot reports only what came after this one
+            ApiMetrics.Snapshot mark = client.metrics().snapshot();
+            assertTrue(client.metrics().snapshot().minus(mark).isEmpty());
+
+            String prometheus = used.prometheus();
+            assertTrue(prometheus.contains("gsuite_api_responses_total{operation=\"GET users/{}\",status=\"404\"} 1\n"));
+            assertTrue(prometheus.contains(
+                "gsuite_api_request_duration_seconds_count{operation=\"POST users\"} "+inserts.count+"\n"));
+            assertTrue(used.json(DirectoryClient.JSON_FACTORY).contains("\"operation\" : \"POST users\""));
+            assertTrue(used.summary().contains("GET users/{}"));
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+
+import org.apache.http.NoHttpResponseException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * The test class for the ApiRetry class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class ApiRetryTest {
+    private static HttpResponseException status(int code) {
+        return new HttpResponseException.Builder(code, null, new HttpHeaders()).build();
+    }
+
+    private static GoogleJsonError error(int code, String reason) {
+        GoogleJsonError.ErrorInfo info = new GoogleJsonError.ErrorInfo();
+        info.setReason(reason);
+        GoogleJsonError e = new GoogleJsonError();
+        e.setCode(code);
+        e.setErrors(Collections.singletonList(info));
+        return e;
+    }
+
+    @Test
+    public void testClassify() {
+        assertEquals(ApiRetry.ErrorKind.RATE_LIMIT, ApiRetry.classify(status(429)));
+        assertEquals(ApiRetry.ErrorKind.BACKEND, ApiRetry.classify(status(503)));
+        assertEquals(ApiRetry.ErrorKind.DUPLICATE, ApiRetry.classify(status(409)));
+        assertEquals(ApiRetry.ErrorKind.NOT_FOUND, ApiRetry.classify(status(404)));
+        assertEquals(ApiRetry.ErrorKind.OTHER, ApiRetry.classify(status(400)));
+        assertEquals(ApiRetry.ErrorKind.NETWORK, ApiRetry.classify(new SocketTimeoutException()));
+        assertEquals(ApiRetry.ErrorKind.NETWORK, ApiRetry.classify(new NoHttpResponseException("hung up")));
+        assertEquals(ApiRetry.ErrorKind.RATE_LIMIT, ApiRetry.classify(error(403, "userRateLimitExceeded")));
+        assertEquals(ApiRetry.ErrorKind.OTHER, ApiRetry.classify(error(403, "forbidden")));
+    }
+
+    @Test
+    public void testBackoffGrows() {
+        ApiRetry retry = new ApiRetry(new RateLimiter(1000), 1, 100);
+        for (int attempt = 1; attempt <= 5; attempt++) {
+            long exponential = 100L << (attempt - 1);
+            long delay = retry.backoffMillis(attempt);
+            assertTrue(delay >= exponential && delay <= exponential + 100);
+        }
+        assertTrue(retry.backoffMillis(30) <= 32000 + 100);
+    }
+
+    @Test
+    public void testRetriesTransientErrorsAndHalvesWindow() throws IOException {
+        ApiRetry retry = new ApiRetry(new RateLimiter(1000), 8, 1);
+        final AtomicInteger attempts = new AtomicInteger();
+        String result = retry.execute(() -> {
+            if (attempts.incrementAndGet() < 3) {throw status(429);}
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(3, retry.getCalls());
+        assertEquals(2, retry.getRetries());
+        assertEquals(2, retry.getThrottled());
+        assertTrue(retry.getWindow() < 3);
+    }
+
+    @Test
+    public void testBurstOfThrottlesHalvesWindowOnce() throws Exception {
+        final ApiRetry retry = new ApiRetry(new RateLimiter(1000), 8, 1);
+        // Errors reported within one batch belong to one call
+        retry.execute(() -> {
+            for (int i = 0; i < 5; i++) {retry.onThrottle();}
+            return null;
+        });
+        assertEquals(5, retry.getThrottled());
+        assertTrue(retry.getWindow() >= 4);
+
+        // Calls sent side by side are all throttled; only the first cuts
+        final double before = retry.getWindow();
+        final CountDownLatch sentTogether = new CountDownLatch(4);
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final AtomicInteger attempts = new AtomicInteger();
+            results.add(workers.submit(() -> retry.execute(() -> {
+                if (attempts.incrementAndGet() == 1) {
+                    sentTogether.countDown();
+                    try {
+                        sentTogether.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    throw status(429);
+                }
+                return "ok";
+            })));
+        }
+        for (Future<String> result : results) {assertEquals("ok", result.get());}
+        workers.shutdown();
+        assertEquals(9, retry.getThrottled());
+        assertTrue("Window "+retry.getWindow(), retry.getWindow() >= before / 2);
+        assertTrue("Window "+retry.getWindow(), retry.getWindow() < before);
+    }
+
+    @Test
+    public void testDuplicateAfterLostInsertIsSuccess() throws IOException {
+        ApiRetry retry = new ApiRetry(new RateLimiter(1000), 1, 1);
+        final AtomicInteger attempts = new AtomicInteger();
+        ApiRetry.Call<String> lostThenDuplicate = () -> {
+            if (attempts.incrementAndGet() % 2 == 1) {throw new SocketTimeoutException();}
+            throw status(409);
+        };
+        assertNull(retry.executeInsert(lostThenDuplicate));
+        assertEquals(2, attempts.get());
+        // Other calls, and inserts refused without a lost attempt, still fail
+        try {
+            retry.execute(lostThenDuplicate);
+            fail("Expected the duplicate to be reported");
+        } catch (HttpResponseException e) {
+            assertEquals(409, e.getStatusCode());
+        }
+        try {
+            retry.executeInsert(() -> {throw status(409);});
+            fail("Expected the duplicate to be reported");
+        } catch (HttpResponseException e) {
+            assertEquals(409, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testPermanentErrorIsNotRetried() {
+        ApiRetry retry = new ApiRetry(new RateLimiter(1000), 1, 1);
+        try {
+            retry.execute(() -> {throw status(409);});
+            fail("409 should be thrown");
+        } catch (IOException e) {
+            assertEquals(409, ((HttpResponseException) e).getStatusCode());
+        }
+        assertEquals(1, retry.getCalls());
+        assertEquals(0, retry.getRetries());
+    }
+
+    @Test
+    public void testBatchTakesOneTokenPerRequest() throws IOException {
+        final AtomicInteger taken = new AtomicInteger();
+        ApiRetry retry = new ApiRetry(new RateLimiter(1000) {
+            @Override
+            void acquire(int permits) {taken.addAndGet(permits);}
+        }, 1, 1);
+        final AtomicInteger attempts = new AtomicInteger();
+        retry.executeBatch(() -> {
+            if (attempts.incrementAndGet() < 2) {throw status(503);}
+            return null;
+        }, 50);
+        // Resending the batch resends every request in it
+        assertEquals(100, taken.get());
+        retry.execute(() -> null);
+        assertEquals(101, taken.get());
+    }
+}
@@ -0,0 +1,88 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * The test class for the CommandDaemon class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class CommandDaemonTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** POST a command line the way bash gsuite does, return status and reply */
+    private static String[] send(CommandDaemon daemon, String token, File dir, String... args) throws IOException {
+        HttpURLConnection c = (HttpURLConnection)
+            new URL("http://127.0.0.1:"+daemon.port()+"/run").openConnection();
+        c.setRequestMethod("POST");
+        c.setDoOutput(true);
+        c.setRequestProperty("Authorization", "Bearer "+token);
+        StringBuilder body = new StringBuilder(dir.getPath()).append('\n');
+        for (String arg : args) {body.append(arg).append('\n');}
+        try (OutputStream out = c.getOutputStream()) {
+            out.write(body.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        int code = c.getResponseCode();
+        if (code != 200) {return new String[] {String.valueOf(code), ""};}
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        try (InputStream in = c.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {reply.write(buffer, 0, n);}
+        }
+        return new String[] {String.valueOf(code), reply.toString("UTF-8")};
+    }
+
+    @Test
+    public void testServesCommandsUntilStopped() throws Exception {
+        File dir = folder.newFolder("work");
+        Files.write(new File(dir, "roster.csv").toPath(), Arrays.asList(
+            "firstName,lastName,email,password",
+            "Ann,Lee,ann@example.com,Pa55word1",
+            "Bob,Ray,bob@example.com,Pa55word2"), StandardCharsets.UTF_8);
+        File state = new File(folder.getRoot(), "daemon");
+
+        try (FakeDirectory fake = new FakeDirectory();
+                DirectoryClient client = DirectoryClient.local(fake.rootUrl());
+                CommandDaemon daemon = new CommandDaemon(client, state)) {
+            daemon.start();
+            String published = new String(Files.readAllBytes(state.toPath()), StandardCharsets.UTF_8);
+            assertEquals(daemon.port()+" "+daemon.token()+"\n", published);
+
+            // Relative paths are taken from the caller's directory
+            String[] created = send(daemon, daemon.token(), dir, "--create", "-p", "roster.csv");
+            assertEquals("200", created[0]);
+            assertTrue(created[1].contains("(2 succeeded, 0 failed)"));
+            assertTrue(created[1].endsWith(CommandDaemon.EXIT_PREFIX+"0\n"));
+            assertEquals(2, fake.userCount());
+
+            // A bad command ends with its status but leaves the daemon running
+            String[] bad = send(daemon, daemon.token(), dir, "--no-such-flag");
+            assertTrue(bad[1].contains("Command not recognized"));
+            assertTrue(bad[1].endsWith(CommandDaemon.EXIT_PREFIX+"2\n"));
+
+            assertEquals("401", send(daemon, "wrong", dir, "-lu")[0]);
+
+            String[] listed = send(daemon, daemon.token(), dir, "-lu");
+            assertTrue(listed[1].contains("ann@example.com"));
+
+            String[] stop = send(daemon, daemon.token(), dir, "--stop-daemon");
+            assertTrue(stop[1].endsWith(CommandDaemon.EXIT_PREFIX+"0\n"));
+            daemon.awaitStop();
+        }
+        assertFalse("State file should be withdrawn", state.exists());
+    }
+}
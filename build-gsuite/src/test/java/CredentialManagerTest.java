@@ -0,0 +1,123 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.ClientParametersAuthentication;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The test class for the CredentialManager class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class CredentialManagerTest {
+    private static final String TOKEN_URL = "https://oauth.example.com/token";
+
+    /**
+     * Token server issuing token1, token2, ... and an API that only
+     * accepts the latest of them.
+     */
+    private static class Server extends MockHttpTransport {
+        final AtomicInteger issued = new AtomicInteger();
+        volatile int tokenStatus = 200;
+        volatile long expiresIn = 3600;
+
+        @Override
+        public LowLevelHttpRequest buildRequest(String method, final String url) {
+            return new MockLowLevelHttpRequest(url) {
+                @Override
+                public LowLevelHttpResponse execute() {
+                    MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+                    response.setContentType("application/json; charset=UTF-8");
+                    if (url.equals(TOKEN_URL)) {
+                        if (tokenStatus != 200) {
+                            response.setStatusCode(tokenStatus);
+                            response.setContent("{\"error\":\"invalid_grant\"}");
+                        } else {
+                            response.setContent("{\"access_token\":\"token"+issued.incrementAndGet()
+                                +"\",\"token_type\":\"Bearer\",\"expires_in\":"+expiresIn+"}");
+                        }
+                    } else if (("Bearer token"+issued.get()).equals(getFirstHeaderValue("Authorization"))) {
+                        response.setContent("{}");
+                    } else {
+                        response.setStatusCode(401);
+                        response.setContent("{\"error\":{\"code\":401}}");
+                    }
+                    return response;
+                }
+            };
+        }
+    }
+
+    private static Credential credential(Server server, String accessToken) {
+        Credential credential = new Credential.Builder(BearerToken.authorizationHeaderAccessMethod())
+            .setTransport(server)
+            .setJsonFactory(JacksonFactory.getDefaultInstance())
+            .setTokenServerUrl(new GenericUrl(TOKEN_URL))
+            .setClientAuthentication(new ClientParametersAuthentication("id", "secret"))
+            .build();
+        credential.setRefreshToken("refresh");
+        credential.setAccessToken(accessToken);
+        credential.setExpiresInSeconds(accessToken == null ? null : 3600L);
+        return credential;
+    }
+
+    @Test
+    public void testRefreshesBeforeExpiry() throws Exception {
+        Server server = new Server();
+        server.expiresIn = 1;
+        // Tokens live 1s and are replaced 800ms early
+        try (CredentialManager tokens = new CredentialManager(credential(server, null), 800, 50)) {
+            tokens.schedule();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (tokens.getRefreshes() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue("Expected repeated refreshes, got "+tokens.getRefreshes(), tokens.getRefreshes() >= 3);
+            assertEquals(0, tokens.getInlineRefreshes());
+            assertTrue(tokens.getAccessToken().startsWith("token"));
+        }
+    }
+
+    @Test
+    public void testRequestRefusedWithStaleTokenIsRetried() throws Exception {
+        Server server = new Server();
+        try (CredentialManager tokens = new CredentialManager(credential(server, "stale"), 0, 50)) {
+            HttpResponse response = server.createRequestFactory(tokens)
+                .buildGetRequest(new GenericUrl("https://api.example.com/users"))
+                .execute();
+            assertEquals(200, response.getStatusCode());
+            assertEquals("token1", tokens.getAccessToken());
+            assertEquals(1, tokens.getInlineRefreshes());
+
+            // A 401 for a token another thread already replaced needs no new refresh
+            server.createRequestFactory(tokens)
+                .buildGetRequest(new GenericUrl("https://api.example.com/users"))
+                .execute();
+            assertEquals(1, server.issued.get());
+        }
+    }
+
+    @Test
+    public void testFailedRefreshIsCounted() {
+        Server server = new Server();
+        server.tokenStatus = 400;
+        try (CredentialManager tokens = new CredentialManager(credential(server, "old"), 0, 50)) {
+            assertFalse(tokens.refresh());
+            assertEquals(1, tokens.getFailures());
+            assertEquals(0, tokens.getRefreshes());
+            assertTrue(tokens.summary().startsWith("Token refreshes: 0, failed: 1"));
+        }
+    }
+}
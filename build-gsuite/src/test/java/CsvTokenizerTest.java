@@ -0,0 +1,50 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * The test class for the CsvTokenizer class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class CsvTokenizerTest {
+    private static CsvTokenizer tokenize(String csv) {
+        // Tiny buffer so records straddle refills
+        return new CsvTokenizer(new StringReader(csv), 3);
+    }
+
+    @Test
+    public void testQuotedFields() throws IOException {
+        CsvTokenizer csv = tokenize("a,\"Director, Sales\",\"say \"\"hi\"\"\",\n");
+        assertTrue(csv.next());
+        assertArrayEquals(new String[] {"a", "Director, Sales", "say \"hi\"", ""}, csv.toArray());
+        assertFalse(csv.next());
+    }
+
+    @Test
+    public void testLineEndingsAndBom() throws IOException {
+        CsvTokenizer csv = tokenize("\uFEFFfirstName,email\r\nAnn,a@example.com\r\nBob,b@example.com");
+        assertTrue(csv.next());
+        assertEquals("firstName", csv.get(0));
+        assertTrue(csv.next());
+        assertArrayEquals(new String[] {"Ann", "a@example.com"}, csv.toArray());
+        assertTrue(csv.next());
+        assertArrayEquals(new String[] {"Bob", "b@example.com"}, csv.toArray());
+        assertFalse(csv.next());
+    }
+
+    @Test
+    public void testLineBreakInsideQuotes() throws IOException {
+        CsvTokenizer csv = tokenize("\"line one\r\nline two\",x\ny,z\n");
+        assertTrue(csv.next());
+        assertEquals("line one\r\nline two", csv.get(0));
+        assertEquals("x", csv.get(1));
+        assertNull(csv.get(2));
+        assertTrue(csv.next());
+        assertEquals("z", csv.get(1));
+        assertFalse(csv.next());
+    }
+}
@@ -0,0 +1,102 @@
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.admin.directory.Directory;
+import com.google.api.services.admin.directory.model.User;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The test class for the DirectoryCache class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class DirectoryCacheTest {
+    private HttpServer server;
+    private Directory service;
+    private File dir;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile String secondPageName = "Bea";
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("snapshot").toFile();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // Two page listing; each page's etag is its body so edits change it
+        server.createContext("/admin/directory/v1/users", exchange -> {
+            requests.incrementAndGet();
+            boolean second = exchange.getRequestURI().getQuery().contains("pageToken=p2");
+            String body = second
+                ? "{\"users\":[{\"primaryEmail\":\"b@example.com\",\"name\":{\"givenName\":\""+secondPageName+"\"}}]}"
+                : "{\"users\":[{\"primaryEmail\":\"a@example.com\",\"name\":{\"givenName\":\"Al\"}}],\"nextPageToken\":\"p2\"}";
+            String etag = "e"+Integer.toHexString(body.hashCode());
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] reply = ("{\"etag\":\""+etag+"\","+body.substring(1))
+                .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, reply.length);
+            try (OutputStream out = exchange.getResponseBody()) {out.write(reply);}
+        });
+        server.start();
+        service = new Directory.Builder(new NetHttpTransport(), JacksonFactory.getDefaultInstance(), null)
+            .setRootUrl("http://127.0.0.1:"+server.getAddress().getPort()+"/")
+            .setApplicationName("DirectoryCacheTest")
+            .build();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        for (File f : dir.listFiles()) {f.delete();}
+        dir.delete();
+    }
+
+    private DirectoryCache newCache() {
+        return new DirectoryCache(dir, 60000, JacksonFactory.getDefaultInstance(),
+            new ApiRetry(new RateLimiter(1000), 1));
+    }
+
+    @Test
+    public void testServedFromSnapshotWithinTtl() throws IOException {
+        DirectoryCache cache = newCache();
+        assertEquals(2, cache.users(service, false).size());
+        assertEquals(2, requests.get());
+
+        List<User> users = newCache()
+            .users(service, false);
+        assertEquals(2, requests.get());
+        assertEquals("b@example.com", users.get(1).getPrimaryEmail());
+    }
+
+    @Test
+    public void testRefreshOnlyDownloadsChangedPages() throws IOException {
+        DirectoryCache cache = newCache();
+        cache.users(service, false);
+        secondPageName = "Beatrice";
+
+        List<User> users = cache.users(service, true);
+        assertEquals(4, requests.get());
+        assertEquals(1, notModified.get());
+        assertEquals("Al", users.get(0).getName().getGivenName());
+        assertEquals("Beatrice", users.get(1).getName().getGivenName());
+    }
+}
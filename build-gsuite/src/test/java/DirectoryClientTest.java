@@ -0,0 +1,69 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The test class for the DirectoryClient class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class DirectoryClientTest {
+    private static List<UserData> roster(String prefix, int size) {
+        List<UserData> roster = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            UserData user = new UserData();
+            user.set("firstName", "First"+i);
+            user.set("lastName", "Last"+i);
+            user.set("email", prefix+i+"@example.com");
+            user.set("password", "changeme"+i);
+            roster.add(user);
+        }
+        return roster;
+    }
+
+    @Test
+    public void testJobsShareOneConnectionPool() throws Exception {
+        PrintStream console = System.out;
+        ExecutorService jobs = Executors.newFixedThreadPool(2);
+        try (FakeDirectory fake = new FakeDirectory();
+                DirectoryClient client = DirectoryClient.local(fake.rootUrl())) {
+            System.setOut(new PrintStream(new ByteArrayOutputStream(), true));
+            RunConfig config = RunConfig.builder().parallelism(4).rate(1000).build();
+            List<Future<Void>> running = new ArrayList<>();
+            for (final String prefix : new String[] {"a", "b"}) {
+                final GSuiteTool tool = new GSuiteTool(client, config);
+                running.add(jobs.submit(() -> {
+                    tool.createUsers(roster(prefix, 30).iterator());
+                    return null;
+                }));
+            }
+            for (Future<Void> job : running) {job.get();}
+
+            assertEquals(60, fake.userCount());
+            assertEquals(60, fake.calls());
+            // Two jobs of 4 workers never need more than 8 sockets
+            assertTrue("Connections should be kept alive, saw "+fake.connections(),
+                fake.connections() <= 8);
+        } finally {
+            System.setOut(console);
+            jobs.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLocalClientUsesRootUrl() throws Exception {
+        try (DirectoryClient client = DirectoryClient.local("http://127.0.0.1:9")) {
+            assertTrue(client.isLocal());
+            assertEquals("http://127.0.0.1:9/", client.directory().getRootUrl());
+            assertEquals("http://127.0.0.1:9/batch/admin/directory_v1", client.batchUrl().build());
+        }
+    }
+}
@@ -0,0 +1,522 @@
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * In-memory stand-in for the parts of the Directory API the tool uses,
+ * for integration and load tests without a real domain or OAuth.
+ * Point the tool at rootUrl() with --root-url or DirectoryClient.local.
+ *
+ * Implements users insert/get/list/update/patch, groups list and
+ * members list/insert/delete, plus the batch endpoint. Latency, a
+ * per second quota (answered with 403 userRateLimitExceeded like the
+ * real API) and random 503 backend errors can be injected.
+ * Field masks are ignored, full resources are always returned.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class FakeDirectory implements AutoCloseable {
+    private static final JsonFactory JSON = JacksonFactory.getDefaultInstance();
+    private static final String SERVICE_PATH = "/admin/directory/v1/";
+    private static final String BATCH_PATH = "/batch/admin/directory_v1";
+    private static final String BOUNDARY = "batch_fake_directory";
+
+    /** Status and JSON body of one API call */
+    private static final class Reply {
+        final int status;
+        final String body;
+        Reply(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService handlers = Executors.newCachedThreadPool();
+
+    // Users keyed by lower case primary email, listed in email order
+    private final Map<String, GenericJson> users = new ConcurrentSkipListMap<>();
+    private final Map<String, GenericJson> groups = new ConcurrentSkipListMap<>();
+    private final Map<String, Map<String, GenericJson>> members = new ConcurrentSkipListMap<>();
+
+    private volatile long latencyMillis = 0;
+    private volatile long jitterMillis = 0;
+    private volatile double errorRate = 0;
+    private volatile long visibilityMillis = 0;
+    private final AtomicInteger dropResponses = new AtomicInteger();
+    // When users inserted through the API were created, for visibilityDelay
+    private final Map<String, Long> created = new ConcurrentHashMap<>();
+    private final Random random = new Random(42);
+
+    // Quota as a token bucket refilled every second, 0 for unlimited
+    private double quota = 0;
+    private double tokens = 0;
+    private long lastRefill = System.nanoTime();
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger exchanges = new AtomicInteger();
+    private final AtomicInteger throttled = new AtomicInteger();
+    private final AtomicInteger injectedErrors = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+    private final Set<String> connections = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    static {
+        // Headers and body go out as separate writes; without this, Nagle's
+        // algorithm and delayed acks add ~40ms to every call
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /** Start listening on a free loopback port. */
+    public FakeDirectory() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::exchange);
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    /** @return String Root url to hand to the Directory client, ends with / */
+    public String rootUrl() {
+        return "http://127.0.0.1:"+server.getAddress().getPort()+"/";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    //////// Configuration ////////
+
+    /** Delay every HTTP exchange by base plus a random amount up to jitter. */
+    public FakeDirectory latency(long baseMillis, long jitterMillis) {
+        this.latencyMillis = baseMillis;
+        this.jitterMillis = jitterMillis;
+        return this;
+    }
+
+    /** Allow at most this many API calls per second, 0 for no limit. */
+    public synchronized FakeDirectory quota(double callsPerSecond) {
+        this.quota = callsPerSecond;
+        this.tokens = callsPerSecond;
+        this.lastRefill = System.nanoTime();
+        return this;
+    }
+
+    /** Answer this fraction of API calls with 503 backendError. */
+    public FakeDirectory errorRate(double fraction) {
+        this.errorRate = fraction;
+        return this;
+    }
+
+    /**
+     * Keep users inserted through the API out of GETs and member inserts
+     * for a while, as the eventually consistent Directory API does.
+     */
+    public FakeDirectory visibilityDelay(long millis) {
+        this.visibilityMillis = millis;
+        return this;
+    }
+
+    /**
+     * Carry out the next count API calls but hang up instead of answering,
+     * as when a response is lost on its way back.
+     */
+    public FakeDirectory dropResponses(int count) {
+        dropResponses.set(count);
+        return this;
+    }
+
+    //////// Data ////////
+
+    public void addUser(String email, String givenName, String familyName) {
+        GenericJson user = new GenericJson();
+        user.set("primaryEmail", email);
+        GenericJson name = new GenericJson();
+        name.set("givenName", givenName);
+        name.set("familyName", familyName);
+        user.set("name", name);
+        users.put(email.toLowerCase(), user);
+    }
+
+    public void addGroup(String email, String name) {
+        GenericJson group = new GenericJson();
+        group.set("email", email);
+        group.set("name", name);
+        groups.put(email.toLowerCase(), group);
+        members.put(email.toLowerCase(), new ConcurrentSkipListMap<String, GenericJson>());
+    }
+
+    /** @return GenericJson Stored user, null if there is none */
+    public GenericJson user(String email) {
+        return users.get(email.toLowerCase());
+    }
+
+    public int userCount() {return users.size();}
+
+    /** @return List<String> Member emails of a group in email order, null for unknown groups */
+    public List<String> members(String group) {
+        Map<String, GenericJson> m = members.get(group.toLowerCase());
+        return m == null ? null : new ArrayList<>(m.keySet());
+    }
+
+    /** Drop all users and memberships, keeping the groups. */
+    public void clear() {
+        users.clear();
+        created.clear();
+        clearMembers();
+    }
+
+    public void clearMembers() {
+        for (Map<String, GenericJson> m : members.values()) {
+            m.clear();
+        }
+    }
+
+    //////// Statistics ////////
+
+    /** @return int API calls received, counting each part of a batch */
+    public int calls() {return calls.get();}
+    /** @return int HTTP requests received, a batch counts once */
+    public int exchanges() {return exchanges.get();}
+    public int throttled() {return throttled.get();}
+    public int injectedErrors() {return injectedErrors.get();}
+    /** @return int Most HTTP requests being answered at the same time */
+    public int peakInFlight() {return peakInFlight.get();}
+    /** @return int Distinct client sockets seen; low when connections are kept alive */
+    public int connections() {return connections.size();}
+
+    /** @return long[] Time in microseconds spent answering each HTTP request, sorted */
+    public long[] latencies() {
+        long[] sorted;
+        synchronized (latencies) {
+            sorted = new long[latencies.size()];
+            for (int i = 0; i < sorted.length; i++) {sorted[i] = latencies.get(i);}
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    public void resetStats() {
+        calls.set(0);
+        exchanges.set(0);
+        throttled.set(0);
+        injectedErrors.set(0);
+        peakInFlight.set(0);
+        latencies.clear();
+        connections.clear();
+    }
+
+    //////// HTTP ////////
+
+    private void exchange(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        exchanges.incrementAndGet();
+        connections.add(exchange.getRemoteAddress().toString());
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            InputStream in = exchange.getRequestBody();
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                in = new GZIPInputStream(in);
+            }
+            String body = new String(readAll(in), StandardCharsets.UTF_8);
+            String method = exchange.getRequestMethod();
+            String override = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+            if (override != null) {method = override;}
+            URI uri = exchange.getRequestURI();
+            delay();
+
+            if (uri.getPath().equals(BATCH_PATH)) {
+                String type = exchange.getRequestHeaders().getFirst("Content-Type");
+                byte[] reply = batch(type.substring(type.indexOf("boundary=") + 9), body)
+                    .getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "multipart/mixed; boundary="+BOUNDARY);
+                exchange.sendResponseHeaders(200, reply.length);
+                try (OutputStream out = exchange.getResponseBody()) {out.write(reply);}
+                return;
+            }
+            Reply reply = call(method, uri.getPath(), uri.getRawQuery(), body);
+            if (dropResponses.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                exchange.close();
+                return;
+            }
+            if (reply.body == null) {
+                exchange.sendResponseHeaders(reply.status, -1);
+                exchange.close();
+                return;
+            }
+            byte[] bytes = reply.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(reply.status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {out.write(bytes);}
+        } catch (RuntimeException e) {
+            byte[] bytes = error(500, e.toString(), "backendError").body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(500, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {out.write(bytes);}
+        } finally {
+            inFlight.decrementAndGet();
+            latencies.add((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    private void delay() {
+        long wait = latencyMillis;
+        if (jitterMillis > 0) {
+            synchronized (random) {wait += (long) (random.nextDouble() * jitterMillis);}
+        }
+        if (wait <= 0) {return;}
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Answer a multipart/mixed batch by running each part as its own call */
+    private String batch(String boundary, String body) {
+        StringBuilder reply = new StringBuilder();
+        int id = 0;
+        for (String part : body.split("--"+boundary)) {
+            // Skip the preamble and the closing "--"
+            int request = part.indexOf("\r\n\r\n");
+            if (request < 0) {continue;}
+            String http = part.substring(request + 4);
+            int headersEnd = http.indexOf("\r\n\r\n");
+            String head = headersEnd < 0 ? http : http.substring(0, headersEnd);
+            String content = headersEnd < 0 ? "" : http.substring(headersEnd + 4).trim();
+            String[] line = head.split("\r\n")[0].split(" ");
+            URI uri;
+            try {
+                uri = new URI(line[1]);
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException(e);
+            }
+            Reply result = call(line[0], uri.getPath(), uri.getRawQuery(), content);
+            id++;
+            reply.append("--").append(BOUNDARY).append("\r\n")
+                 .append("Content-Type: application/http\r\n")
+                 .append("Content-ID: response-").append(id).append("\r\n\r\n")
+                 .append("HTTP/1.1 ").append(result.status).append(" ").append(reason(result.status)).append("\r\n")
+                 .append("Content-Type: application/json; charset=UTF-8\r\n\r\n")
+                 .append(result.body == null ? "" : result.body).append("\r\n");
+        }
+        return reply.append("--").append(BOUNDARY).append("--\r\n").toString();
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 204: return "No Content";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 409: return "Conflict";
+            default:  return "Error";
+        }
+    }
+
+    //////// Directory API ////////
+
+    /** Route one API call; path is decoded, query is raw */
+    private Reply call(String method, String path, String query, String body) {
+        calls.incrementAndGet();
+        if (!acquire()) {
+            throttled.incrementAndGet();
+            return error(403, "Quota exceeded for quota metric", "userRateLimitExceeded");
+        }
+        if (errorRate > 0) {
+            boolean fail;
+            synchronized (random) {fail = random.nextDouble() < errorRate;}
+            if (fail) {
+                injectedErrors.incrementAndGet();
+                return error(503, "Backend Error", "backendError");
+            }
+        }
+        if (!path.startsWith(SERVICE_PATH)) {return error(404, "Not Found", "notFound");}
+        String[] parts = path.substring(SERVICE_PATH.length()).split("/");
+        Map<String, String> params = params(query);
+
+        if (parts[0].equals("users")) {
+            if (parts.length == 1) {
+                if (method.equals("POST")) {return insertUser(body);}
+                if (method.equals("GET")) {return list("users", new ArrayList<>(users.values()), params, 100);}
+            } else if (parts.length == 2) {
+                String key = parts[1].toLowerCase();
+                if (method.equals("GET")) {return getUser(key);}
+                if (method.equals("PUT")) {return updateUser(key, body, false);}
+                if (method.equals("PATCH")) {return updateUser(key, body, true);}
+            }
+        } else if (parts[0].equals("groups")) {
+            if (parts.length == 1 && method.equals("GET")) {
+                return list("groups", new ArrayList<>(groups.values()), params, 200);
+            }
+            if (parts.length >= 3 && parts[2].equals("members")) {
+                Map<String, GenericJson> group = members.get(parts[1].toLowerCase());
+                if (group == null) {return error(404, "Resource Not Found: groupKey", "notFound");}
+                if (parts.length == 3 && method.equals("GET")) {
+                    return list("members", new ArrayList<>(group.values()), params, 200);
+                }
+                if (parts.length == 3 && method.equals("POST")) {return insertMember(group, body);}
+                if (parts.length == 4 && method.equals("DELETE")) {
+                    return group.remove(parts[3].toLowerCase()) == null
+                        ? error(404, "Resource Not Found: memberKey", "notFound")
+                        : new Reply(204, null);
+                }
+            }
+        }
+        return error(400, "Unsupported call "+method+" "+path, "invalid");
+    }
+
+    private synchronized boolean acquire() {
+        if (quota <= 0) {return true;}
+        long now = System.nanoTime();
+        tokens = Math.min(quota, tokens + (now - lastRefill) / 1e9 * quota);
+        lastRefill = now;
+        if (tokens < 1) {return false;}
+        tokens -= 1;
+        return true;
+    }
+
+    private Reply insertUser(String body) {
+        GenericJson user = parse(body);
+        Object email = user.get("primaryEmail");
+        if (email == null) {return error(400, "Invalid Input: primary_user_email", "invalid");}
+        user.remove("password");
+        user.set("id", String.valueOf(Math.abs(email.toString().hashCode())));
+        if (users.putIfAbsent(email.toString().toLowerCase(), user) != null) {
+            return error(409, "Entity already exists.", "duplicate");
+        }
+        created.put(email.toString().toLowerCase(), System.nanoTime());
+        return new Reply(200, json(user));
+    }
+
+    /** @return boolean False for users inserted less than visibilityDelay ago */
+    private boolean visible(String key) {
+        Long at = created.get(key);
+        return at == null || System.nanoTime() - at >= visibilityMillis * 1000000;
+    }
+
+    private Reply getUser(String key) {
+        GenericJson user = users.get(key);
+        return user == null || !visible(key)
+            ? error(404, "Resource Not Found: userKey", "notFound")
+            : new Reply(200, json(user));
+    }
+
+    private Reply updateUser(String key, String body, boolean patch) {
+        GenericJson user = users.get(key);
+        if (user == null) {return error(404, "Resource Not Found: userKey", "notFound");}
+        GenericJson changes = parse(body);
+        changes.remove("password");
+        synchronized (user) {
+            if (!patch) {
+                Object email = user.get("primaryEmail");
+                user.clear();
+                user.set("primaryEmail", email);
+            }
+            user.putAll(changes);
+            return new Reply(200, json(user));
+        }
+    }
+
+    private Reply insertMember(Map<String, GenericJson> group, String body) {
+        GenericJson member = parse(body);
+        Object email = member.get("email");
+        if (email == null) {return error(400, "Missing required field: memberKey", "required");}
+        if (users.containsKey(email.toString().toLowerCase()) && !visible(email.toString().toLowerCase())) {
+            return error(404, "Resource Not Found: memberKey", "notFound");
+        }
+        if (!member.containsKey("role")) {member.set("role", "MEMBER");}
+        member.set("type", groups.containsKey(email.toString().toLowerCase()) ? "GROUP" : "USER");
+        if (group.putIfAbsent(email.toString().toLowerCase(), member) != null) {
+            return error(409, "Member already exists.", "duplicate");
+        }
+        return new Reply(200, json(member));
+    }
+
+    /** One page of a listing; page tokens are plain offsets */
+    private static Reply list(String field, List<GenericJson> items, Map<String, String> params, int defaultPage) {
+        int from = params.containsKey("pageToken") && !params.get("pageToken").isEmpty()
+            ? Integer.parseInt(params.get("pageToken")) : 0;
+        int size = params.containsKey("maxResults") ? Integer.parseInt(params.get("maxResults")) : defaultPage;
+        int to = Math.min(items.size(), from + size);
+        GenericJson page = new GenericJson();
+        page.set(field, new ArrayList<>(items.subList(Math.min(from, to), to)));
+        if (to < items.size()) {page.set("nextPageToken", String.valueOf(to));}
+        return new Reply(200, json(page));
+    }
+
+    private static Reply error(int code, String message, String reason) {
+        return new Reply(code, "{\"error\":{\"code\":"+code+",\"message\":\""+message.replace("\"", "'")
+            +"\",\"errors\":[{\"reason\":\""+reason+"\",\"message\":\""+message.replace("\"", "'")+"\"}]}}");
+    }
+
+    private static String json(Object value) {
+        try {
+            return JSON.toString(value);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static GenericJson parse(String body) {
+        try {
+            return JSON.fromString(body, GenericJson.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static Map<String, String> params(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {return params;}
+        try {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq < 0) {continue;}
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                    URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return params;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        for (int n = in.read(chunk); n > 0; n = in.read(chunk)) {
+            buffer.write(chunk, 0, n);
+        }
+        return buffer.toByteArray();
+    }
+}
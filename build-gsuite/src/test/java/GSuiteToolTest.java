@@ -1,7 +1,24 @@
 import static org.junit.Assert.*;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import com.google.api.client.util.ArrayMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The test class for the GSuiteTool class
@@ -15,6 +32,9 @@ public class GSuiteToolTest {
      */
     public GSuiteToolTest() {}
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private static final String testDataPath =
         GSuiteToolTest.class
             .getResource("/testData.csv")
@@ -83,4 +103,343 @@ public class GSuiteToolTest {
         System.out.println("<< Results of "+name+" >>");
         GSuiteTool.main(new String[] {"-a", "-c", "-u", "-lu", "-lg", "-v", "-d", "-p", testDataPath, "--dry"});
     }
+    @Test
+    public void testParallelCreateAgainstLocalServer() throws IOException {
+        String name = new Object(){}.getClass().getEnclosingMethod().getName();
+        System.out.println("<< Results of "+name+" >>");
+        ArrayList<UserData> roster = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            UserData user = new UserData();
+            user.set("firstName", "First"+i);
+            user.set("lastName", "Last"+i);
+            user.set("email", "user"+i+"@example.com");
+            user.set("password", "changeme"+i);
+            roster.add(user);
+        }
+
+        PrintStream console = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        try (FakeDirectory fake = new FakeDirectory();
+                DirectoryClient client = DirectoryClient.local(fake.rootUrl())) {
+            // Already exists, so its insert is rejected as a duplicate
+            fake.addUser("user7@example.com", "First7", "Last7");
+            System.setOut(new PrintStream(captured, true));
+            GSuiteTool tool = new GSuiteTool(client, RunConfig.builder().parallelism(8).rate(1000).build());
+            tool.createUsers(roster.iterator());
+            assertEquals(40, fake.userCount());
+            assertEquals(40, fake.calls());
+        } finally {
+            System.setOut(console);
+        }
+        String output = captured.toString();
+        System.out.print(output);
+
+        int last = -1;
+        for (int i = 0; i < roster.size(); i++) {
+            int at = output.indexOf("CREATE user"+i+"@example.com");
+            assertTrue("Rows should be reported in input order", at > last);
+            last = at;
+        }
+        assertTrue(output.contains("(39 succeeded, 1 failed)"));
+    }
+
+    @Test
+    public void testVirtualThreadsKeepRequestsWithinParallelism() throws IOException {
+        String name = new Object(){}.getClass().getEnclosingMethod().getName();
+        System.out.println("<< Results of "+name+" >>");
+        ArrayList<UserData> roster = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            UserData user = new UserData();
+            user.set("firstName", "First"+i);
+            user.set("lastName", "Last"+i);
+            user.set("email", "user"+i+"@example.com");
+            user.set("password", "changeme"+i);
+            user.set("groups", "staff@example.com team@example.com");
+            roster.add(user);
+        }
+
+        PrintStream console = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        try (FakeDirectory fake = new FakeDirectory();
+                DirectoryClient client = DirectoryClient.local(fake.rootUrl())) {
+            fake.addGroup("staff@example.com", "Staff");
+            fake.addGroup("team@example.com", "Team");
+            fake.latency(5, 5);
+            System.setOut(new PrintStream(captured, true));
+            RunConfig config = RunConfig.builder().parallelism(4).rate(1000).virtualThreads(true).build();
+            // Falls back to 4 workers where the JVM has no virtual threads
+            new GSuiteTool(client, config).createUsers(roster.iterator());
+            new GSuiteTool(client, config).addMembers(roster.iterator());
+            assertEquals(60, fake.userCount());
+            assertEquals(60, fake.members("staff@example.com").size());
+            assertEquals(60, fake.members("team@example.com").size());
+            assertTrue("At most 4 requests in flight, saw "+fake.peakInFlight(), fake.peakInFlight() <= 4);
+        } finally {
+            System.setOut(console);
+        }
+        String output = captured.toString();
+        int last = -1;
+        for (int i = 0; i < roster.size(); i++) {
+            int at = output.indexOf("INSERT user"+i+"@example.com INTO staff@example.com");
+            assertTrue("Rows should be reported in input order", at > last);
+            last = at;
+        }
+        assertTrue(output.contains("Processed 60 users (60 succeeded, 0 failed)"));
+        assertEquals(BulkExecutor.hasVirtualThreads(), BulkExecutor.virtualThreadPerTask() != null);
+    }
+
+    @Test
+    public void testOnboardWaitsUntilUsersAreVisible() throws IOException {
+        String name = new Object(){}.getClass().getEnclosingMethod().getName();
+        System.out.println("<< Results of "+name+" >>");
+        File roster = folder.newFile("onboard.csv");
+        write(roster, "firstName,lastName,email,password,groups",
+            "Ann,Lee,ann@example.com,Pa55word1,staff@example.com team@example.com",
+            "Bob,Ray,bob@example.com,Pa55word2,staff@example.com",
+            "Cy,Fox,cy@example.com,Pa55word3,");
+
+        PrintStream console = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        try (FakeDirectory fake = new FakeDirectory()) {
+            fake.addGroup("staff@example.com", "Staff");
+            fake.addGroup("team@example.com", "Team");
+            // New users stay invisible for a while, as in the real API
+            fake.visibilityDelay(400);
+            System.setOut(new PrintStream(captured, true));
+            GSuiteTool.main(new String[] {
+                "--root-url", fake.rootUrl(), "-q", "1000", "-j", "3", "--onboard", "-p", roster.getPath()});
+            assertEquals(3, fake.userCount());
+            assertEquals(Arrays.asList("ann@example.com", "bob@example.com"), fake.members("staff@example.com"));
+            assertEquals(Arrays.asList("ann@example.com"), fake.members("team@example.com"));
+        } finally {
+            System.setOut(console);
+        }
+        String output = captured.toString();
+        System.out.print(output);
+        assertTrue(output.contains("READY ann@example.com after"));
+        assertTrue(output.indexOf("CREATE bob@example.com") < output.indexOf("INSERT bob@example.com INTO staff@example.com"));
+        assertTrue(output.contains("Processed 3 users (3 succeeded, 0 failed)"));
+        assertTrue(output.contains("First user onboarded after"));
+    }
+
+    @Test
+    public void testInsertWithLostResponseSucceeds() throws IOException {
+        String name = new Object(){}.getClass().getEnclosingMethod().getName();
+        System.out.println("<< Results of "+name+" >>");
+        UserData user = new UserData();
+        user.set("firstName", "Ann");
+        user.set("lastName", "Lee");
+        user.set("email", "ann@example.com");
+        user.set("password", "Pa55word1");
+        user.set("groups", "staff@example.com");
+
+        PrintStream console = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        try (FakeDirectory fake = new FakeDirectory();
+                DirectoryClient client = DirectoryClient.local(fake.rootUrl())) {
+            fake.addGroup("staff@example.com", "Staff");
+            System.setOut(new PrintStream(captured, true));
+            RunConfig config = RunConfig.builder().rate(1000).build();
+            // Each insert is carried out but its response never arrives,
+            // so the retry is refused as a duplicate
+            fake.dropResponses(1);
+            new GSuiteTool(client, config).createUsers(Arrays.asList(user).iterator());
+            fake.dropResponses(1);
+            new GSuiteTool(client, config).addMembers(Arrays.asList(user).iterator());
+            assertEquals(1, fake.userCount());
+            assertEquals(Arrays.asList("ann@example.com"), fake.members("staff@example.com"));
+        } finally {
+            System.setOut(console);
+        }
+        String output = captured.toString();
+        System.out.print(output);
+        assertTrue(output.contains("CREATE ann@example.com - Success!"));
+        assertTrue(output.contains("INSERT ann@example.com INTO staff@example.com - Success!"));
+        assertFalse(output.contains("Failure"));
+    }
+
+    @Test
+    public void testResumedCreateOfExistingUserIsDone() throws IOException {
+        String name = new Object(){}.getClass().getEnclosingMethod().getName();
+        System.out.println("<< Results of "+name+" >>");
+        File roster = folder.newFile("create.csv");
+        write(roster, "firstName,lastName,email,password",
+            "Ann,Lee,ann@example.com,Pa55word1");
+        File journal = RunJournal.forRoster(roster.getPath(), "create");
+
+        try (FakeDirectory fake = new FakeDirectory();
+                DirectoryClient client = DirectoryClient.local(fake.rootUrl())) {
+            RunConfig config = RunConfig.builder().rate(1000).createUsers(true).path(roster.getPath()).build();
+            new GSuiteTool(client, config).run();
+            assertEquals(1, fake.userCount());
+            // A crash before the journal was synced loses the record
+            assertTrue(journal.delete());
+
+            config = RunConfig.builder().rate(1000).createUsers(true).resume(true).path(roster.getPath()).build();
+            new GSuiteTool(client, config).run();
+            assertEquals(Arrays.asList("1\tann@example.com\t\tOK"),
+                Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8));
+            int calls = fake.calls();
+            new GSuiteTool(client, config).run();
+            assertEquals(calls, fake.calls());
+        }
+    }
+
+    @Test
+    public void testValidationStopsBeforeAnyChange() throws IOException {
+        String name = new Object(){}.getClass().getEnclosingMethod().getName();
+        System.out.println("<< Results of "+name+" >>");
+        File roster = folder.newFile("bad.csv");
+        write(roster, "firstName,lastName,email,password,groups",
+            "Ann,Lee,ann@example.com,Pa55word1,staff@example.com",
+            "Bob,Ray,bob@example,Pa55word2,staff@example.com",
+            "Cy,Fox,ANN@example.com,short,nogroup@example.com");
+
+        PrintStream console = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        try (FakeDirectory fake = new FakeDirectory();
+                DirectoryClient client = DirectoryClient.local(fake.rootUrl())) {
+            fake.addGroup("staff@example.com", "Staff");
+            System.setOut(new PrintStream(captured, true));
+            RunConfig config = RunConfig.builder().rate(1000).onboard(true).path(roster.getPath()).build();
+            try {
+                new GSuiteTool(client, config).run();
+                fail("Expected the run to stop on a bad roster");
+            } catch (GSuiteTool.Exit e) {
+                assertEquals(1, e.status);
+            }
+            // Only the group listing, nothing created
+            assertEquals(1, fake.calls());
+            assertEquals(0, fake.userCount());
+            String output = captured.toString();
+            console.print(output);
+            assertTrue(output.contains("Row 2: \"bob@example\" is not a valid email address"));
+            assertTrue(output.contains("Row 3: ann@example.com is already on row 1"));
+            assertTrue(output.contains("Row 3: Password shorter than 8 characters"));
+            assertTrue(output.contains("Row 3: No group nogroup@example.com in the domain"));
+            assertTrue(output.indexOf("Row 2:") < output.indexOf("Row 3:"));
+
+            // The same file goes through when the check is skipped
+            config = RunConfig.builder().rate(1000).createUsers(true).noValidate(true).path(roster.getPath()).build();
+            new GSuiteTool(client, config).run();
+            assertTrue(fake.userCount() > 0);
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    @Test
+    public void testBulkCommandsAgainstFakeDirectory() throws IOException {
+        String name = new Object(){}.getClass().getEnclosingMethod().getName();
+        System.out.println("<< Results of "+name+" >>");
+        File roster = folder.newFile("roster.csv");
+        File moved = folder.newFile("moved.csv");
+        write(roster, "firstName,lastName,email,password,jobtitle,dept,groups",
+            "Ann,Lee,ann@example.com,Pa55word1,Analyst,Finance,staff@example.com team@example.com",
+            "Bob,Ray,bob@example.com,Pa55word2,Engineer,IT,staff@example.com");
+        write(moved, "email,jobtitle,groups",
+            "ann@example.com,Director,staff@example.com",
+            "bob@example.com,Engineer,staff@example.com team@example.com");
+
+        try (FakeDirectory fake = new FakeDirectory()) {
+            fake.addGroup("staff@example.com", "Staff");
+            fake.addGroup("team@example.com", "Team");
+            // Every call fails once in a while and must be retried
+            fake.errorRate(0.1);
+            String[] local = {"--root-url", fake.rootUrl(), "-q", "1000", "-j", "4"};
+
+            GSuiteTool.main(args(local, "--create", "-p", roster.getPath()));
+            assertEquals(2, fake.userCount());
+
+            GSuiteTool.main(args(local, "--add", "--batch", "-p", roster.getPath()));
+            assertEquals(Arrays.asList("ann@example.com", "bob@example.com"), fake.members("staff@example.com"));
+            assertEquals(Arrays.asList("ann@example.com"), fake.members("team@example.com"));
+
+            GSuiteTool.main(args(local, "--update", "-p", moved.getPath()));
+            assertTrue(fake.user("ann@example.com").toString().contains("Director"));
+
+            GSuiteTool.main(args(local, "--sync-groups", "-p", moved.getPath()));
+            assertEquals(Arrays.asList("ann@example.com", "bob@example.com"), fake.members("staff@example.com"));
+            assertEquals(Arrays.asList("bob@example.com"), fake.members("team@example.com"));
+
+            File listing = new File(folder.getRoot(), "users.jsonl");
+            GSuiteTool.main(args(local, "-lu", "-cols", "email,title", "-f", "jsonl", "-o", listing.getPath()));
+            assertEquals(2, Files.readAllLines(listing.toPath(), StandardCharsets.UTF_8).size());
+            assertTrue(new String(Files.readAllBytes(listing.toPath()), StandardCharsets.UTF_8)
+                .contains("{\"email\":\"ann@example.com\",\"title\":\"Director\"}"));
+        }
+    }
+
+    private static String[] args(String[] common, String... more) {
+        String[] all = Arrays.copyOf(common, common.length + more.length);
+        System.arraycopy(more, 0, all, common.length, more.length);
+        return all;
+    }
+
+    private static void write(File file, String... lines) throws IOException {
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testOrganizationChanges() {
+        String name = new Object(){}.getClass().getEnclosingMethod().getName();
+        System.out.println("<< Results of "+name+" >>");
+        ArrayMap<String, Object> org = new ArrayMap<>();
+        org.put("title", "Analyst");
+        org.put("department", "Finance");
+        ArrayList<Object> current = new ArrayList<>();
+        current.add(org);
+
+        UserData same = new UserData();
+        same.set("jobtitle", "Analyst");
+        same.set("dept", "Finance");
+        assertTrue(GSuiteTool.organizationChanges(current, same).isEmpty());
+
+        // Only the title column is present, department must be left alone
+        UserData promoted = new UserData();
+        promoted.set("jobtitle", "Director, Finance");
+        Map<String, String> changes = GSuiteTool.organizationChanges(current, promoted);
+        assertEquals(1, changes.size());
+        assertEquals("Director, Finance", changes.get("title"));
+
+        UserData newHire = new UserData();
+        newHire.set("dept", "Sales");
+        assertEquals("Sales", GSuiteTool.organizationChanges(null, newHire).get("department"));
+    }
+
+    @Test
+    public void testMembershipPlan() {
+        String name = new Object(){}.getClass().getEnclosingMethod().getName();
+        System.out.println("<< Results of "+name+" >>");
+        Map<String, Set<String>> desired = new LinkedHashMap<>();
+        desired.put("staff@example.com", new HashSet<>(Arrays.asList("a@example.com", "b@example.com")));
+        desired.put("new@example.com", new HashSet<>(Arrays.asList("c@example.com")));
+
+        Map<String, Map<String, Boolean>> current = new HashMap<>();
+        Map<String, Boolean> staff = new HashMap<>();
+        staff.put("a@example.com", true);
+        staff.put("gone@example.com", true);
+        // Owners stay even when the file no longer lists them
+        staff.put("owner@example.com", false);
+        current.put("staff@example.com", staff);
+        current.put("new@example.com", new HashMap<String, Boolean>());
+
+        List<String[]> plan = GSuiteTool.membershipPlan(desired, current);
+        assertEquals(3, plan.size());
+        assertArrayEquals(new String[] {"INSERT", "b@example.com", "staff@example.com"}, plan.get(0));
+        assertArrayEquals(new String[] {"DELETE", "gone@example.com", "staff@example.com"}, plan.get(1));
+        assertArrayEquals(new String[] {"INSERT", "c@example.com", "new@example.com"}, plan.get(2));
+    }
+
+    @Test
+    public void testGroupsOf() {
+        String name = new Object(){}.getClass().getEnclosingMethod().getName();
+        System.out.println("<< Results of "+name+" >>");
+        UserData user = new UserData();
+        assertEquals(0, GSuiteTool.groupsOf(user).length);
+        user.set("groups", "  ");
+        assertEquals(0, GSuiteTool.groupsOf(user).length);
+        user.set("groups", " staff@example.com  team@example.com ");
+        assertArrayEquals(new String[] {"staff@example.com", "team@example.com"}, GSuiteTool.groupsOf(user));
+    }
 }
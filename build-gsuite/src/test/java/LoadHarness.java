@@ -0,0 +1,132 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Load test of every bulk command against a FakeDirectory.
+ * Each mode runs GSuiteTool.main on a generated roster and reports rows
+ * per second, API calls per second and the p50/p99 time the fake API
+ * took to answer a request (injected latency included).
+ * Run with `gradle loadTest -P loadArgs="['2000', '20', '0.01']"`
+ * for rows, latency in ms and the fraction of calls failing with 503.
+ * Run it on JDK 21 or later to compare the virtual thread modes with
+ * the fixed pool.
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class LoadHarness {
+    private static final int GROUPS = 20;
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        double errors = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+
+        File dir = Files.createTempDirectory("loadtest").toFile();
+        File roster = new File(dir, "roster.csv");
+        File changed = new File(dir, "changed.csv");
+        writeRoster(roster, rows, 0);
+        writeRoster(changed, rows, 1);
+
+        PrintStream console = System.out;
+        try (FakeDirectory fake = new FakeDirectory()) {
+            for (int g = 0; g < GROUPS; g++) {
+                fake.addGroup("group"+g+"@example.com", "Group "+g);
+            }
+            fake.latency(latency, latency / 2).errorRate(errors);
+            String url = fake.rootUrl();
+            console.printf("%d rows, %d ms latency, %.1f%% errors%n", rows, latency, errors * 100);
+            if (!BulkExecutor.hasVirtualThreads()) {
+                console.println("No virtual threads before JDK 21, virtual modes run on the fixed pool");
+            }
+            console.printf("%-24s %9s %9s %9s %9s %9s %9s%n",
+                "mode", "seconds", "rows/s", "calls", "calls/s", "p50 ms", "p99 ms");
+
+            fake.clear();
+            run(console, fake, rows, "create -j 1", url, "--create", "-j", "1", "-p", roster.getPath());
+            fake.clear();
+            run(console, fake, rows, "create -j 8", url, "--create", "-j", "8", "-p", roster.getPath());
+            fake.clear();
+            run(console, fake, rows, "create -j 8 virtual", url, "--create", "-j", "8", "--virtual-threads",
+                "-p", roster.getPath());
+            run(console, fake, rows, "add", url, "--add", "-p", roster.getPath());
+            fake.clearMembers();
+            run(console, fake, rows, "add -j 8", url, "--add", "-j", "8", "-p", roster.getPath());
+            fake.clearMembers();
+            run(console, fake, rows, "add -j 8 virtual", url, "--add", "-j", "8", "--virtual-threads",
+                "-p", roster.getPath());
+            fake.clearMembers();
+            run(console, fake, rows, "add --batch", url, "--add", "--batch", "-p", roster.getPath());
+            fake.clear();
+            run(console, fake, rows, "onboard -j 8", url, "--onboard", "-j", "8", "-p", roster.getPath());
+            run(console, fake, rows, "update", url, "--update", "-p", changed.getPath());
+            run(console, fake, rows, "update (no changes)", url, "--update", "-p", changed.getPath());
+            run(console, fake, rows, "update -j 8", url, "--update", "-j", "8", "-p", roster.getPath());
+            run(console, fake, rows, "update -j 8 virtual", url, "--update", "-j", "8", "--virtual-threads",
+                "-p", changed.getPath());
+            run(console, fake, rows, "sync-groups -j 8", url, "--sync-groups", "-j", "8", "-p", changed.getPath());
+            fake.clearMembers();
+            run(console, fake, rows, "sync-groups --batch", url, "--sync-groups", "--batch", "-p", changed.getPath());
+        } finally {
+            System.setOut(console);
+            for (File f : dir.listFiles()) {f.delete();}
+            dir.delete();
+        }
+    }
+
+    private static void run(PrintStream console, FakeDirectory fake, int rows, String mode,
+            String url, String... command) throws IOException {
+        List<String> args = new ArrayList<>();
+        args.add("--root-url");
+        args.add(url);
+        args.add("-q");
+        args.add("100000");
+        for (String arg : command) {args.add(arg);}
+
+        fake.resetStats();
+        // Per row reports of the tool would swamp the table
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {}
+        }));
+        long start = System.nanoTime();
+        try {
+            GSuiteTool.main(args.toArray(new String[args.size()]));
+        } finally {
+            System.setOut(console);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long[] latencies = fake.latencies();
+        console.printf("%-24s %9.2f %9.1f %9d %9.1f %9.1f %9.1f%n",
+            mode, seconds, rows / seconds, fake.calls(), fake.calls() / seconds,
+            percentile(latencies, 0.50), percentile(latencies, 0.99));
+    }
+
+    /** @return double Percentile of sorted microsecond latencies, in milliseconds */
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {return 0;}
+        int at = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, at)] / 1000.0;
+    }
+
+    /**
+     * Roster where every user is in two groups. A shift of 1 changes
+     * every title and moves everyone to the next pair of groups.
+     */
+    private static void writeRoster(File file, int rows, int shift) throws IOException {
+        List<String> lines = new ArrayList<>(rows + 1);
+        lines.add("firstName,lastName,email,password,jobtitle,dept,groups");
+        for (int i = 0; i < rows; i++) {
+            lines.add("First"+i+",Last"+i+",user"+i+"@example.com,Pa55word"+i
+                +",Title "+((i + shift) % 30)+",Dept "+(i % 10)
+                +",group"+((i + shift) % GROUPS)+"@example.com group"+((i + shift + 7) % GROUPS)+"@example.com");
+        }
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,92 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The test class for the MappedRoster class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class MappedRosterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File roster(String text) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<String> streamed(File file) throws IOException {
+        List<String> rows = new ArrayList<>();
+        try (RosterReader roster = RosterReader.open(file.getPath())) {
+            while (roster.hasNext()) {rows.add(describe(roster.next()));}
+        }
+        return rows;
+    }
+
+    private static List<UserData> read(File file, int chunkSize) throws IOException {
+        List<UserData> rows = new ArrayList<>();
+        for (List<UserData> chunk : MappedRoster.readChunks(file.getPath(), chunkSize, 0, r -> r)) {rows.addAll(chunk);}
+        return rows;
+    }
+
+    private static List<String> mapped(File file, int chunkSize) throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (UserData user : read(file, chunkSize)) {rows.add(describe(user));}
+        return rows;
+    }
+
+    private static String describe(UserData user) {
+        return user.getFirstName()+"|"+user.getEmail()+"|"+user.getTitle()+"|"+user.getGroups()+"|"+user.getExtras();
+    }
+
+    @Test
+    public void testChunksMatchSinglePass() throws IOException {
+        StringBuilder csv = new StringBuilder("\uFEFFfirstName,email,jobtitle,\"groups\",note\r\n");
+        for (int i = 0; i < 500; i++) {
+            switch (i % 5) {
+                case 0  :   csv.append("Ann"+i+",a"+i+"@example.com,\"Lead,\r\nFinance\",g@example.com,\"say \"\"hi\"\"\n\n\"\r\n");
+                            break;
+                case 1  :   csv.append("Jos\u00e9"+i+",b"+i+"@example.com,T\u00edtulo,,\n");
+                            break;
+                case 2  :   csv.append("\n");
+                            break;
+                case 3  :   csv.append("Cy"+i+",c"+i+"@example.com,\"\n\n\n\",\"x@example.com\ny@example.com\"\r");
+                            break;
+                default :   csv.append("Di"+i+",d"+i+"@example.com\r\n");
+                            break;
+            }
+        }
+        File file = roster(csv.toString());
+        List<String> expected = streamed(file);
+        assertEquals(400, expected.size());
+        assertTrue(expected.get(1).startsWith("Jos\u00e91|b1@example.com|T\u00edtulo|"));
+        // Cuts land inside quoted line breaks and between CR and LF
+        for (int chunkSize : new int[] {1, 7, 64, 1000, 1 << 20}) {
+            assertEquals("chunk size "+chunkSize, expected, mapped(file, chunkSize));
+        }
+        assertEquals(expected, mapped(file, 0));
+    }
+
+    @Test
+    public void testEdgeFiles() throws IOException {
+        assertTrue(MappedRoster.readChunks("/notAFile", r -> r).isEmpty());
+        assertTrue(MappedRoster.readChunks(roster("").getPath(), r -> r).isEmpty());
+        assertTrue(read(roster("\uFEFFemail,groups\n"), 0).isEmpty());
+
+        // No line break at the end, an unterminated quote runs to the end of the file
+        List<UserData> rows = read(roster("email,groups\na@example.com,\"g@example.com\nb"), 1);
+        assertEquals(1, rows.size());
+        assertEquals("g@example.com\nb", rows.get(0).getGroups());
+    }
+}
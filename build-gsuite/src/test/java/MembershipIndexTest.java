@@ -0,0 +1,58 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The test class for the MembershipIndex class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class MembershipIndexTest {
+    /** all -> staff -> {ann, team}; team -> {bob, staff} (a cycle) */
+    private static MembershipIndex nested() {
+        Map<String, List<String>> members = new LinkedHashMap<>();
+        members.put("all@example.com", Arrays.asList("staff@example.com", "cat@example.com"));
+        members.put("staff@example.com", Arrays.asList("Ann@example.com", "team@example.com"));
+        members.put("team@example.com", Arrays.asList("bob@example.com", "staff@example.com"));
+        members.put("empty@example.com", Collections.<String>emptyList());
+        return MembershipIndex.build(members);
+    }
+
+    @Test
+    public void testEffectiveMembersExpandNestedGroups() {
+        MembershipIndex index = nested();
+        assertEquals(Arrays.asList("ann@example.com", "bob@example.com", "cat@example.com"),
+            index.effectiveMembers("ALL@example.com"));
+        assertEquals(Arrays.asList("ann@example.com", "bob@example.com"),
+            index.effectiveMembers("team@example.com"));
+        assertTrue(index.effectiveMembers("empty@example.com").isEmpty());
+        assertNull(index.effectiveMembers("ann@example.com"));
+        assertNull(index.effectiveMembers("nobody@example.com"));
+    }
+
+    @Test
+    public void testGroupsOf() {
+        MembershipIndex index = nested();
+        assertEquals(Arrays.asList("all@example.com", "staff@example.com", "team@example.com"),
+            index.groupsOf("bob@example.com"));
+        assertEquals(Arrays.asList("all@example.com"), index.groupsOf("cat@example.com"));
+        // A group is in the groups that nest it, but not in itself
+        assertEquals(Arrays.asList("all@example.com", "team@example.com"),
+            index.groupsOf("staff@example.com"));
+        assertTrue(index.groupsOf("nobody@example.com").isEmpty());
+    }
+
+    @Test
+    public void testDirectMembership() {
+        MembershipIndex index = nested();
+        assertTrue(index.isDirectMember("staff@example.com", "ann@example.com"));
+        assertFalse(index.isDirectMember("all@example.com", "ann@example.com"));
+        assertFalse(index.isDirectMember("nobody@example.com", "ann@example.com"));
+    }
+}
@@ -0,0 +1,121 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The test class for the OutputSink class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class OutputSinkTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCsvQuoting() throws IOException {
+        assertEquals("plain", quote("plain"));
+        assertEquals("", quote(null));
+        assertEquals("\"Smith, Ann\"", quote("Smith, Ann"));
+        assertEquals("\"say \"\"hi\"\"\"", quote("say \"hi\""));
+        assertEquals("\"two\nlines\"", quote("two\nlines"));
+        assertEquals("\" padded \"", quote(" padded "));
+    }
+
+    @Test
+    public void testCsvFileHasHeaderAndRows() throws IOException {
+        File out = folder.newFile("users.csv");
+        try (OutputSink sink = OutputSink.open(OutputSink.Format.CSV, out.getPath(), Arrays.asList("email", "title"))) {
+            sink.write(new String[] {"ann@example.com", "Analyst, Senior"});
+            sink.write(new String[] {"bob@example.com", null});
+            assertEquals(2, sink.getRows());
+        }
+        assertEquals(Arrays.asList("email,title", "ann@example.com,\"Analyst, Senior\"", "bob@example.com,"),
+            Files.readAllLines(out.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testJsonLinesEscaping() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputSink sink = new OutputSink.JsonLines(Arrays.asList("email", "title"),
+                new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+            sink.write(new String[] {"ann@example.com", "Says \"hi\"\\\n\u0001"});
+            sink.write(new String[] {"bob@example.com", null});
+        }
+        assertEquals("{\"email\":\"ann@example.com\",\"title\":\"Says \\\"hi\\\"\\\\\\n\\u0001\"}\n"
+            + "{\"email\":\"bob@example.com\",\"title\":null}\n", bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void testColumnarRoundTrip() throws IOException {
+        File out = folder.newFile("users.gscol");
+        int count = OutputSink.Columnar.ROW_GROUP * 2 + 5;
+        try (OutputSink sink = OutputSink.open(OutputSink.Format.COLUMNAR, out.getPath(),
+                Arrays.asList("email", "dept", "title"))) {
+            for (int i = 0; i < count; i++) {
+                // Few departments are dictionary encoded, unique emails are not
+                sink.write(new String[] {"user"+i+"@example.com", "Dept "+(i % 3), i % 4 == 0 ? null : "T\u00edtulo "+i});
+            }
+        }
+        List<String[]> rows;
+        try (InputStream in = new FileInputStream(out)) {
+            rows = OutputSink.Columnar.read(in);
+        }
+        assertArrayEquals(new String[] {"email", "dept", "title"}, rows.get(0));
+        assertEquals(count + 1, rows.size());
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(new String[] {"user"+i+"@example.com", "Dept "+(i % 3), i % 4 == 0 ? null : "T\u00edtulo "+i},
+                rows.get(i + 1));
+        }
+        // Dictionary encoding keeps the repeated column small
+        assertTrue(out.length() < count * ("user0000@example.com".length() + "T\u00edtulo 0000".length() + 4));
+    }
+
+    @Test
+    public void testColumnarEmpty() throws IOException {
+        File out = folder.newFile("empty.gscol");
+        OutputSink.open(OutputSink.Format.COLUMNAR, out.getPath(), Arrays.asList("name", "email")).close();
+        List<String[]> rows;
+        try (InputStream in = new FileInputStream(out)) {
+            rows = OutputSink.Columnar.read(in);
+        }
+        assertEquals(1, rows.size());
+        assertArrayEquals(new String[] {"name", "email"}, rows.get(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void testColumnarRejectsOtherData() throws IOException {
+        OutputSink.Columnar.read(new ByteArrayInputStream("email,title\n".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testColumnarNeedsFile() throws IOException {
+        OutputSink.open(OutputSink.Format.COLUMNAR, null, Arrays.asList("email"));
+    }
+
+    @Test
+    public void testFormatParse() {
+        assertEquals(OutputSink.Format.JSONL, OutputSink.Format.parse(" jsonl"));
+        assertEquals(OutputSink.Format.COLUMNAR, OutputSink.Format.parse("Columnar"));
+    }
+
+    private static String quote(String value) throws IOException {
+        StringWriter out = new StringWriter();
+        OutputSink.Csv.quote(out, value);
+        return out.toString();
+    }
+}
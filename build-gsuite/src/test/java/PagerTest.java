@@ -0,0 +1,64 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The test class for the Pager class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class PagerTest {
+    /** Pages are numbered; page n links to n+1 until the last one */
+    private static String nextOf(Integer page, int last) {
+        return page < last ? String.valueOf(page + 1) : null;
+    }
+
+    @Test
+    public void testPagesArriveInOrder() throws IOException {
+        List<Integer> seen = new ArrayList<>();
+        try (Pager<Integer> pages = new Pager<>(
+                token -> token.isEmpty() ? 1 : Integer.valueOf(token),
+                page -> nextOf(page, 5))) {
+            for (Integer page = pages.next(); page != null; page = pages.next()) {
+                seen.add(page);
+            }
+            assertNull(pages.next());
+        }
+        assertEquals(java.util.Arrays.asList(1, 2, 3, 4, 5), seen);
+    }
+
+    @Test
+    public void testFetchOverlapsConsumer() throws IOException, InterruptedException {
+        CountDownLatch secondFetch = new CountDownLatch(1);
+        try (Pager<Integer> pages = new Pager<>(
+                token -> {
+                    if (token.equals("2")) {secondFetch.countDown();}
+                    return token.isEmpty() ? 1 : Integer.valueOf(token);
+                },
+                page -> nextOf(page, 3))) {
+            assertEquals(Integer.valueOf(1), pages.next());
+            // Serial paging would only ask for page 2 on the next call
+            assertTrue("Page 2 was not fetched while page 1 was in use", secondFetch.await(10, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(2), pages.next());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testFetchErrorReachesConsumer() throws IOException {
+        try (Pager<Integer> pages = new Pager<>(
+                token -> {
+                    if (!token.isEmpty()) {throw new IOException("page 2 failed");}
+                    return 1;
+                },
+                page -> nextOf(page, 3))) {
+            assertEquals(Integer.valueOf(1), pages.next());
+            pages.next();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * The test class for the RosterReader class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class RosterReaderTest {
+    private static final String testDataPath =
+        RosterReaderTest.class
+            .getResource("/testData.csv")
+            .toString()
+            .substring(5);
+
+    private static RosterReader fromText(String csv) throws IOException {
+        return new RosterReader(new BufferedReader(new StringReader(csv)));
+    }
+
+    @Test
+    public void testHeaderOnlyFile() throws IOException {
+        try (RosterReader roster = RosterReader.open(testDataPath)) {
+            assertFalse(roster.hasNext());
+        }
+    }
+
+    @Test
+    public void testMissingFileIsEmpty() throws IOException {
+        try (RosterReader roster = RosterReader.open("/notAFile")) {
+            assertFalse(roster.hasNext());
+        }
+    }
+
+    @Test
+    public void testRowsFollowHeaderOrder() throws IOException {
+        RosterReader roster = fromText(
+            "email,firstName,lastName,groups\n"
+            + "a@example.com,Ann,Able,g1@example.com g2@example.com\n"
+            + "b@example.com,Bob,Baker,\n");
+        assertTrue(roster.hasNext());
+        UserData first = roster.next();
+        assertEquals("Ann", first.getFirstName());
+        assertEquals("a@example.com", first.getEmail());
+        assertEquals("g1@example.com g2@example.com", first.getGroups());
+        assertNull(first.getTitle());
+
+        UserData second = roster.next();
+        assertEquals("Baker", second.getLastName());
+        assertEquals("", second.getGroups());
+        assertFalse(roster.hasNext());
+    }
+
+    @Test
+    public void testUnknownColumnsKept() throws IOException {
+        RosterReader roster = fromText(
+            "email,costCenter,jobtitle\n"
+            + "a@example.com,CC-12,\"Director, Sales\"\n");
+        UserData user = roster.next();
+        assertEquals("a@example.com", user.getEmail());
+        assertEquals("Director, Sales", user.getTitle());
+        assertEquals("CC-12", user.getExtra("costCenter"));
+        assertEquals(1, user.getExtras().size());
+    }
+}
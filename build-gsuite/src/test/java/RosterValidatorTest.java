@@ -0,0 +1,124 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The test class for the RosterValidator class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class RosterValidatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File roster(String... lines) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static List<String> messages(RosterValidator validator, File roster) throws IOException {
+        List<String> messages = new ArrayList<>();
+        for (RosterValidator.Problem p : validator.validate(roster.getPath())) {messages.add(p.toString());}
+        return messages;
+    }
+
+    @Test
+    public void testCreateChecksEveryRow() throws IOException {
+        RosterValidator validator = RosterValidator.forRun(RunConfig.builder().createUsers(true).build());
+        File roster = roster("firstName,lastName,email,password",
+            "Ann,Lee,ann@example.com,Pa55word1",
+            ",Ray,bob@example..com,Pa55word2",
+            "Cy,Fox,cy@example.com,short",
+            "Di,Orr,di@example.com,\" Pa55word4\"",
+            "Ed,Ma,ed@example.com,Pa55w\u00f6rd5",
+            "Flo,Ng,\" \",Pa55word6");
+        assertEquals(Arrays.asList(
+            "Row 2: Missing firstName",
+            "Row 2: \"bob@example..com\" is not a valid email address",
+            "Row 3: Password shorter than 8 characters",
+            "Row 4: Password starts or ends with a space",
+            "Row 5: Password has characters other than printable ASCII",
+            "Row 6: Missing email"), messages(validator, roster));
+        assertEquals(6, validator.getRows());
+    }
+
+    @Test
+    public void testGroupsAndMissingColumns() throws IOException {
+        RosterValidator validator = RosterValidator.forRun(RunConfig.builder().addMembers(true).build());
+        assertTrue(validator.checksGroups());
+        validator.knownGroups(new HashSet<>(Arrays.asList("staff@example.com")));
+        File roster = roster("email,groups",
+            "ann@example.com,Staff@example.com nope@example.com",
+            "ann@example.com,",
+            "bob@example.com,staff");
+        // Members may repeat, blank groups are fine
+        assertEquals(Arrays.asList(
+            "Row 1: No group nope@example.com in the domain",
+            "Row 3: \"staff\" is not a valid group email"), messages(validator, roster));
+
+        // A column missing from the file is reported once, not on every row
+        validator = RosterValidator.forRun(RunConfig.builder().syncGroups(true).build());
+        roster = roster("firstName", "Ann", "Bob");
+        assertEquals(Arrays.asList(
+            "Column email is missing from the file",
+            "Column groups is missing from the file"), messages(validator, roster));
+
+        assertNull(RosterValidator.forRun(RunConfig.builder().listUsers(true).build()));
+    }
+
+    @Test
+    public void testCaseIgnoredInAnyLocale() throws IOException {
+        Locale locale = Locale.getDefault();
+        // Lower case of I is a dotless i in Turkish
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            RosterValidator validator = RosterValidator.forRun(RunConfig.builder().onboard(true).build());
+            validator.knownGroups(new HashSet<>(Arrays.asList("it@example.com")));
+            File roster = roster("firstName,lastName,email,password,groups",
+                "Ann,Lee,LIZ@example.com,Pa55word1,IT@example.com",
+                "Bob,Ray,liz@example.com,Pa55word2,it@example.com");
+            assertEquals(Arrays.asList("Row 2: liz@example.com is already on row 1"), messages(validator, roster));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void testFileCheckedChunkByChunk() throws IOException {
+        // Over a megabyte, so the file is parsed and checked as several chunks
+        List<String> lines = new ArrayList<>();
+        lines.add("firstName,lastName,email,password");
+        int rows = 3 * MappedRoster.MIN_CHUNK / 48;
+        for (int i = 1; i <= rows; i++) {
+            lines.add("First"+i+",Last"+i+",user"+i+"@example.com,Pa55word"+i);
+        }
+        lines.set(rows / 2, "First,Last,not-an-email,Pa55word0");
+        // Repeats land in later chunks than the rows they repeat
+        lines.set(rows / 3, "First,Last,USER7@example.com,Pa55word0");
+        lines.set(2 * rows / 3, "First,Last,user8@example.com,Pa55word0");
+        lines.set(rows, "First,Last,user7@example.com,Pa55word0");
+        File file = folder.newFile("large.csv");
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+
+        RosterValidator validator = RosterValidator.forRun(RunConfig.builder().createUsers(true).build());
+        assertEquals(Arrays.asList(
+            "Row "+(rows / 3)+": user7@example.com is already on row 7",
+            "Row "+(rows / 2)+": \"not-an-email\" is not a valid email address",
+            "Row "+(2 * rows / 3)+": user8@example.com is already on row 8",
+            "Row "+rows+": user7@example.com is already on row 7"), messages(validator, file));
+        assertEquals(rows, validator.getRows());
+    }
+}
@@ -0,0 +1,57 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * The test class for the RunConfig class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class RunConfigTest {
+    @Test
+    public void testDefaults() {
+        RunConfig config = RunConfig.builder().build();
+        assertFalse(config.dryRun);
+        assertFalse(config.verbose);
+        assertEquals("", config.path);
+        assertEquals(1, config.parallelism);
+        assertEquals(RateLimiter.DIRECTORY_QPS, config.rate, 0);
+        assertEquals(UserColumn.parse(UserColumn.DEFAULT), config.columns);
+        assertFalse(config.needsService());
+        assertFalse(config.useCache());
+    }
+
+    @Test
+    public void testParseArgs() {
+        RunConfig config = GSuiteTool.parseArgs(new String[] {
+            "-c", "--dry", "-j", "8", "-q", "20", "-p", "/tmp/roster.csv", "-wi", "staff@example.com"});
+        assertTrue(config.createUsers);
+        assertTrue(config.dryRun);
+        assertEquals(8, config.parallelism);
+        assertEquals(20, config.rate, 0);
+        assertEquals("/tmp/roster.csv", config.path);
+        assertEquals("staff@example.com", config.whoIsIn);
+        assertTrue(config.membershipQuery());
+        assertTrue(config.needsService());
+    }
+
+    @Test
+    public void testBuiltConfigIsUnaffectedByBuilder() {
+        RunConfig.Builder builder = RunConfig.builder().verbose(true);
+        RunConfig first = builder.build();
+        builder.verbose(false).parallelism(4);
+        assertTrue(first.verbose);
+        assertEquals(1, first.parallelism);
+        try {
+            first.columns.clear();
+            fail("Columns of a built config should be read only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsZeroParallelism() {
+        RunConfig.builder().parallelism(0);
+    }
+}
@@ -0,0 +1,72 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The test class for the RunJournal class
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class RunJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResumeSkipsFinishedRows() throws IOException {
+        File file = new File(folder.getRoot(), "roster.csv.add.journal");
+        try (RunJournal journal = RunJournal.open(file, false)) {
+            journal.record(1, "a@example.com", "staff@example.com", true);
+            journal.record(1, "a@example.com", "team@example.com", false);
+            journal.record(2, "b@example.com", null, true);
+        }
+        try (RunJournal journal = RunJournal.open(file, true)) {
+            assertTrue(journal.isDone(1, "a@example.com", "staff@example.com"));
+            assertFalse(journal.isDone(1, "a@example.com", "team@example.com"));
+            assertTrue(journal.isDone(2, "b@example.com", null));
+            // Same row number with a different email means the file changed
+            assertFalse(journal.isDone(2, "c@example.com", null));
+            assertEquals(2, journal.getSkipped());
+            journal.record(1, "a@example.com", "team@example.com", true);
+        }
+        try (RunJournal journal = RunJournal.open(file, true)) {
+            assertTrue(journal.isDone(1, "a@example.com", "team@example.com"));
+        }
+    }
+
+    @Test
+    public void testTornLineIsIgnored() throws IOException {
+        File file = new File(folder.getRoot(), "roster.csv.create.journal");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("1\ta@example.com\t\tOK\n2\tb@example.com\t".getBytes(StandardCharsets.UTF_8));
+        }
+        try (RunJournal journal = RunJournal.open(file, true)) {
+            assertTrue(journal.isDone(1, "a@example.com", null));
+            assertFalse(journal.isDone(2, "b@example.com", null));
+            journal.record(3, "c@example.com", null, true);
+        }
+        // The record after the torn line starts a line of its own
+        try (RunJournal journal = RunJournal.open(file, true)) {
+            assertTrue(journal.isDone(3, "c@example.com", null));
+        }
+    }
+
+    @Test
+    public void testNewRunStartsFresh() throws IOException {
+        File file = new File(folder.getRoot(), "roster.csv.create.journal");
+        try (RunJournal journal = RunJournal.open(file, false)) {
+            journal.record(1, "a@example.com", null, true);
+        }
+        // A new run that records nothing still drops the old journal
+        RunJournal.open(file, false).close();
+        try (RunJournal journal = RunJournal.open(file, true)) {
+            assertFalse(journal.isDone(1, "a@example.com", null));
+        }
+    }
+}
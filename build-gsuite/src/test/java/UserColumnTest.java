@@ -0,0 +1,27 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * The test class for the UserColumn enum
+ *
+ * @author Gavin Kyte
+ * @version 3.2.0
+ */
+public class UserColumnTest {
+    @Test
+    public void testDefaultMask() {
+        assertEquals("nextPageToken,etag,users(name(givenName,familyName),primaryEmail,organizations(title))",
+            UserColumn.listMask(UserColumn.parse(UserColumn.DEFAULT)));
+    }
+
+    @Test
+    public void testMaskGroupsSubFields() {
+        assertEquals("primaryEmail,organizations(department,title)",
+            UserColumn.userMask(UserColumn.parse("email,dept,title")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownColumn() {
+        UserColumn.parse("email,shoeSize");
+    }
+}